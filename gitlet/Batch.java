@@ -0,0 +1,118 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Represents the batch mode of Gitlet.
+ * Commands are read one per line and run in order against a single
+ * Repository, so a script making thousands of changes starts one JVM.
+ * A line is split into arguments at white space. Double quotes group
+ * an argument with white space in it, and a backslash takes the next
+ * character as it is. Blank lines are skipped.
+ * The output of every command is followed by a line holding a single
+ * NUL character, and is flushed whenever no more input is waiting, so
+ * a caller can send a command and read its answer before the next one.
+ * Index writes are held back and the index file is written once, at
+ * the end of the input, or when a command fails with an unexpected
+ * exception. Such a command has its exception printed, and the rest
+ * run against a fresh Repository, as the daemon does, since the old
+ * one may be left half changed.
+ * @author Neman Faiz
+ */
+public class Batch {
+
+    /**Line written after the output of every command. */
+    private static final String END = "\0";
+
+    /**Running every command read from IN.
+     * @param first the repository
+     * @param in the commands, one per line. */
+    protected static void run(Repository first, BufferedReader in)
+            throws IOException {
+        Repository repo = first;
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)), false,
+                StandardCharsets.UTF_8);
+        System.setOut(out);
+        repo.deferIndexWrites();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] args = split(line);
+                if (args == null) {
+                    out.println("Unterminated quote.");
+                } else {
+                    try {
+                        Main.run(repo, args);
+                    } catch (IOException | RuntimeException excp) {
+                        out.println(excp);
+                        repo.flushIndex();
+                        repo = new Repository();
+                        repo.deferIndexWrites();
+                    }
+                }
+                out.println(END);
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } finally {
+            try {
+                repo.flushIndex();
+            } finally {
+                out.flush();
+                System.setOut(stdout);
+            }
+        }
+    }
+
+    /**Splitting a command line into arguments.
+     * @param line the command line
+     * @return the arguments, or null if a quote is not closed. */
+    protected static String[] split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                c = line.charAt(i);
+            } else if (c == '"') {
+                quoted = !quoted;
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                continue;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (arg != null) {
+                    args.add(arg.toString());
+                    arg = null;
+                }
+                continue;
+            }
+            if (arg == null) {
+                arg = new StringBuilder();
+            }
+            arg.append(c);
+        }
+        if (quoted) {
+            return null;
+        }
+        if (arg != null) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/** Represents the writing of working files for checkout and reset.
+ * It is given the files that differ between the current commit and
+ * the commit being checked out, so files with the same blob on both
+ * sides are only touched if their working file was changed. Files that
+ * go away are deleted first, then the others are written from their
+ * blobs on a WorkPool. The stat cache of the index is refreshed for every file
+ * written, so the next status does not hash them again. The numbers
+ * of files written and deleted are kept for the --stat report.
+ * @author Neman Faiz
+ */
+public class Checkout {
+
+    /**The working directory. */
+    private final File workDir;
+    /**Object store the blobs are read from. */
+    private final ObjectStore objects;
+    /**Index whose stat cache is refreshed. */
+    private final Index index;
+    /**Number of files written so far. */
+    private int written;
+    /**Number of files deleted so far. */
+    private int deleted;
+
+    /**Creating a checkout.
+     * @param dir the working directory
+     * @param store object store the blobs are read from
+     * @param idx index whose stat cache is refreshed. */
+    protected Checkout(File dir, ObjectStore store, Index idx) {
+        this.workDir = dir;
+        this.objects = store;
+        this.index = idx;
+    }
+
+    /**Changing the working files.
+     * @param changes map of file name to the blob it is written from,
+     * or to null for a file that is deleted. */
+    protected void apply(Map<String, String> changes) throws IOException {
+        List<Callable<Void>> work = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                Utils.join(workDir, change.getKey()).delete();
+                index.forget(change.getKey());
+                deleted += 1;
+            } else {
+                work.add(() -> write(change.getKey(), change.getValue()));
+                weights.add(WorkPool.weight(objects, change.getValue()));
+            }
+        }
+        written += work.size();
+        WorkPool.run(work, weights);
+    }
+
+    /**@param tracked number of files tracked by the commit checked out
+     * @return a line telling how many files were written, deleted and
+     * left alone because their blob did not change. */
+    protected String report(int tracked) {
+        return String.format("%d written, %d deleted, %d skipped.",
+                written, deleted, tracked - written);
+    }
+
+    /**Writing one working file from its blob.
+     * @param fileName name of the file
+     * @param blob SHA-1 id of the blob
+     * @return null. */
+    private Void write(String fileName, String blob) throws IOException {
+        File file = Utils.join(workDir, fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        objects.copyTo(blob, file);
+        index.refresh(fileName, file, blob);
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.util.Random;
+
+/** Represents the content-defined chunking of large files.
+ * Cut points are found with a gear hash, as in FastCDC: every byte
+ * shifts the hash left and adds a random number picked by the byte,
+ * and a chunk ends where the top bits of the hash are all zero. The
+ * mask is stricter before the average size and looser after it, so
+ * chunk sizes bunch up around AVG_SIZE. Because a cut point only
+ * depends on the bytes just before it, an edit only changes the
+ * chunks around it and the rest of the file cuts the same way.
+ * @author Neman Faiz
+ */
+public class Chunker {
+
+    /**Smallest chunk, except at the end of a file. */
+    protected static final int MIN_SIZE = 16 << 10;
+    /**Size chunks bunch up around. */
+    protected static final int AVG_SIZE = 64 << 10;
+    /**Largest chunk. */
+    protected static final int MAX_SIZE = 256 << 10;
+    /**Mask used before AVG_SIZE, two bits stricter than the average. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /**Mask used after AVG_SIZE, two bits looser than the average. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /**Fixed seed of the gear table, so every repository cuts a file
+     * at the same points. */
+    private static final long SEED = 0x6769746c6574L;
+    /**Random number of every byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(SEED);
+        for (int b = 0; b < GEAR.length; b += 1) {
+            GEAR[b] = random.nextLong();
+        }
+    }
+
+    /**Finding where the next chunk ends.
+     * @param bytes buffer holding the rest of the file, or at least
+     * MAX_SIZE bytes of it
+     * @param start position of the first byte of the chunk
+     * @param length number of bytes from START in the buffer
+     * @return the length of the chunk. */
+    protected static int cut(byte[] bytes, int start, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int end = Math.min(length, MAX_SIZE);
+        int normal = Math.min(end, AVG_SIZE);
+        long h = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            h = (h << 1) + GEAR[bytes[start + i] & 0xff];
+            if ((h & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            h = (h << 1) + GEAR[bytes[start + i] & 0xff];
+            if ((h & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
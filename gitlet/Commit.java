@@ -1,15 +1,56 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
-/** Represents a commit object that can be serialized.
+/** Represents a commit object.
+ * Commits are stored in a compact binary encoding: a magic number and
+ * version, the parents, the time stamp, the message and the id of the
+ * tree of tracked files. The SHA-1 id of a commit is the hash of this
+ * encoding, so it only depends on the content of the commit.
+ * Commits of the first version of the encoding hold their tracked
+ * files inline, sorted by name, instead of a tree.
+ * Commits written by older versions with Java serialization can still
+ * be read, which is why this class stays Serializable.
  * @author Neman Faiz
  */
 public class Commit implements Serializable {
 
+    /**Serialization version of the commits written by older versions,
+     * fixed so they can still be read now that the class has changed. */
+    private static final long serialVersionUID = 6022054951894025242L;
+
+    /**First two bytes of an encoded commit. */
+    private static final short MAGIC = 0x4743;
+
+    /**First two bytes of a commit written with Java serialization. */
+    private static final short LEGACY_MAGIC = (short) 0xaced;
+
+    /**Version of the encoding written by this class. */
+    private static final byte VERSION = 2;
+
+    /**Version of the encoding with the tracked files inline. */
+    private static final byte INLINE_VERSION = 1;
+
+    /**Flag set when the encoded commit has a parent. */
+    private static final int HAS_PARENT = 1;
+
+    /**Flag set when the encoded commit has a merge parent. */
+    private static final int HAS_MERGE_PARENT = 2;
+
     /**Message associated with the commit. */
     private final String message;
 
@@ -18,9 +59,17 @@ public class Commit implements Serializable {
 
     /**Container that contains file
      * information associated with the commit
-     * this maps name of file to id of blob. */
+     * this maps name of file to id of blob.
+     * For a commit with a tree it is read from the tree when needed. */
     protected HashMap<String, String> trackedFiles;
 
+    /**Id of the tree of tracked files. Null for commits that hold
+     * their tracked files inline. */
+    private final String tree;
+
+    /**Object store the tree of this commit is read from. */
+    private transient ObjectStore objects;
+
     /**Parent to the commit. (the previous commit) */
     private final String parent;
 
@@ -34,14 +83,16 @@ public class Commit implements Serializable {
     /**Creating a commit object.
      * @param commitMessage message of this commit
      * @param commitParent parent of this commit
-     * @param commitTrackedFiles file info of this commit.
+     * @param commitTree id of the tree of files of this commit
+     * @param store object store the tree is kept in.
      * This commit object has no merge parent
      * and when this commit is created the time stamp is set to that
      * point of time with the following format. */
     protected Commit(String commitMessage, String commitParent,
-                     HashMap<String, String> commitTrackedFiles) {
+                     String commitTree, ObjectStore store) {
         this.message = commitMessage;
-        this.trackedFiles = commitTrackedFiles;
+        this.tree = commitTree;
+        this.objects = store;
         this.parent = commitParent;
         this.mergeParent = null;
 
@@ -57,15 +108,17 @@ public class Commit implements Serializable {
      * @param commitMessage message of this commit
      * @param commitParent parent of this commit
      * @param commitMergeCommit merge parent of this commit
-     * @param commitTrackedFiles file info of this commit.
+     * @param commitTree id of the tree of files of this commit
+     * @param store object store the tree is kept in.
      * This commit object has no merge parent
      * and when this commit is created the time stamp is set to that
      * point of time with the following format. */
     protected Commit(String commitMessage,
                      String commitParent, String commitMergeCommit,
-                     HashMap<String, String> commitTrackedFiles) {
+                     String commitTree, ObjectStore store) {
         this.message = commitMessage;
-        this.trackedFiles = commitTrackedFiles;
+        this.tree = commitTree;
+        this.objects = store;
         this.parent = commitParent;
         this.mergeParent = commitMergeCommit;
 
@@ -77,11 +130,183 @@ public class Commit implements Serializable {
 
     }
 
+    /**Creating a commit object read back from its encoding.
+     * @param id SHA-1 id of this commit
+     * @param commitMessage message of this commit
+     * @param commitTimeStamp time stamp of this commit
+     * @param commitParent parent of this commit
+     * @param commitMergeParent merge parent of this commit
+     * @param commitTree id of the tree of this commit, or null
+     * @param commitTrackedFiles file info of this commit when it
+     * has no tree. */
+    private Commit(String id, String commitMessage, String commitTimeStamp,
+                   String commitParent, String commitMergeParent,
+                   String commitTree,
+                   HashMap<String, String> commitTrackedFiles) {
+        this.commitId = id;
+        this.message = commitMessage;
+        this.timeStamp = commitTimeStamp;
+        this.parent = commitParent;
+        this.mergeParent = commitMergeParent;
+        this.tree = commitTree;
+        this.trackedFiles = commitTrackedFiles;
+    }
+
     /**Making a SHA-1 ID for this commit object.
      * @return the SHA-1 id for the commit object. */
     protected String makeSerial() {
-        byte[] serial = Utils.serialize(this);
-        return Utils.sha1((Object) serial);
+        return Utils.sha1((Object) encode());
+    }
+
+    /**Encoding this commit.
+     * A commit without a tree, read from an older repository, is
+     * written with its tracked files inline, sorted by name so that
+     * the same commit always has the same encoding.
+     * @return the bytes of the encoded commit. */
+    protected byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(MAGIC);
+            out.writeByte(tree != null ? VERSION : INLINE_VERSION);
+
+            int flags = 0;
+            if (parent != null) {
+                flags |= HAS_PARENT;
+            }
+            if (mergeParent != null) {
+                flags |= HAS_MERGE_PARENT;
+            }
+            out.writeByte(flags);
+            if (parent != null) {
+                out.write(Utils.fromHex(parent));
+            }
+            if (mergeParent != null) {
+                out.write(Utils.fromHex(mergeParent));
+            }
+            writeString(out, timeStamp);
+            writeString(out, message);
+
+            if (tree != null) {
+                out.write(Utils.fromHex(tree));
+            } else {
+                TreeMap<String, String> sorted = new TreeMap<>(trackedFiles);
+                out.writeInt(sorted.size());
+                for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.write(Utils.fromHex(entry.getValue()));
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+    }
+
+    /**Decoding a commit.
+     * @param id SHA-1 id of the commit
+     * @param content the bytes of the encoded commit
+     * @return the commit object. */
+    protected static Commit decode(String id, byte[] content) {
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(content));
+            if (in.readShort() != MAGIC) {
+                throw Utils.error("Corrupt commit %s.", id);
+            }
+            byte version = in.readByte();
+            if (version != VERSION && version != INLINE_VERSION) {
+                throw Utils.error("Corrupt commit %s.", id);
+            }
+            int flags = in.readByte();
+            String commitParent = null;
+            String commitMergeParent = null;
+            if ((flags & HAS_PARENT) != 0) {
+                commitParent = readId(in);
+            }
+            if ((flags & HAS_MERGE_PARENT) != 0) {
+                commitMergeParent = readId(in);
+            }
+            String commitTimeStamp = readString(in);
+            String commitMessage = readString(in);
+
+            if (version == VERSION) {
+                return new Commit(id, commitMessage, commitTimeStamp,
+                        commitParent, commitMergeParent, readId(in), null);
+            }
+            int size = in.readInt();
+            HashMap<String, String> files = new HashMap<>(size * 2);
+            for (int k = 0; k < size; k += 1) {
+                String fileName = readString(in);
+                files.put(fileName, readId(in));
+            }
+            return new Commit(id, commitMessage, commitTimeStamp,
+                    commitParent, commitMergeParent, null, files);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt commit %s.", id);
+        }
+    }
+
+    /**Reading a commit from a file named by its SHA-1 id.
+     * Commits written with Java serialization are still understood.
+     * @param commitPath the file of the commit
+     * @param store object store the tree of the commit is kept in
+     * @return the commit object. */
+    protected static Commit read(File commitPath, ObjectStore store) {
+        byte[] content = ObjectStore.decode(Utils.readContents(commitPath));
+        Commit commit;
+        if (isLegacy(content)) {
+            commit = Utils.readObject(commitPath, Commit.class);
+        } else {
+            commit = decode(commitPath.getName(), content);
+        }
+        commit.objects = store;
+        return commit;
+    }
+
+    /**Writing this commit to a file in its binary encoding,
+     * compressed like any other object.
+     * @param commitPath the file of the commit. */
+    protected void write(File commitPath) {
+        Utils.writeContents(commitPath,
+                (Object) ObjectStore.encode(encode()));
+    }
+
+    /**@param content the bytes of a stored commit
+     * @return true if the commit was written with Java serialization. */
+    protected static boolean isLegacy(byte[] content) {
+        return content.length >= 2
+                && (short) (((content[0] & 0xff) << 8) | (content[1] & 0xff))
+                == LEGACY_MAGIC;
+    }
+
+    /**Helper function to encode.
+     * @param out stream the commit is written to
+     * @param str the string to write, as its length and UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String str)
+            throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**Helper function to decode.
+     * @param in stream the commit is read from
+     * @return the next string of the stream. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**Helper function to decode.
+     * @param in stream the commit is read from
+     * @return the next SHA-1 id of the stream, in hex. */
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_BYTES];
+        in.readFully(id);
+        return Utils.toHex(id);
     }
 
     /**@return the SHA-1 ID of this commit object. */
@@ -99,10 +324,32 @@ public class Commit implements Serializable {
         return this.timeStamp;
     }
 
-    /**@return the HashMap that contains
-     * file info that associated with this commit.  */
-    protected HashMap<String, String> getTrackedFiles() {
-        return this.trackedFiles;
+    /**@return the time this commit was created,
+     * in seconds since the epoch. */
+    protected long getTime() {
+        try {
+            SimpleDateFormat dateTimeFormatter =
+                    new SimpleDateFormat("E LLL dd HH:mm:ss yyyy Z");
+            return dateTimeFormatter.parse(timeStamp).getTime() / 1000;
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /**@return the map that contains file info that associated with
+     * this commit. Commits are shared through the session cache, so the
+     * map is read-only; copy it to change it. */
+    protected Map<String, String> getTrackedFiles() {
+        if (this.trackedFiles == null) {
+            this.trackedFiles = Tree.flatten(objects, tree);
+        }
+        return Collections.unmodifiableMap(this.trackedFiles);
+    }
+
+    /**@return the id of the tree of this commit, or null
+     * if this commit holds its tracked files inline. */
+    protected String getTree() {
+        return this.tree;
     }
 
     /**@return the parent of this commit. */
@@ -114,18 +361,4 @@ public class Commit implements Serializable {
     protected String getMergeParent() {
         return this.mergeParent;
     }
-
-
-    /**This prints out commit id, time stamp,
-     *  and message of each commit. */
-    protected void getGlobalLogPrint() {
-
-        System.out.println("===");
-        System.out.print("commit ");
-        System.out.println(getCommitId());
-        System.out.print("Date: ");
-        System.out.println(getTimeStamp());
-        System.out.println(getMessage());
-        System.out.println();
-    }
 }
@@ -0,0 +1,483 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Represents the commit-graph file of a repository.
+ * The file holds one fixed-width record per commit: its id, the
+ * positions of its parent and merge parent in the file, its generation
+ * number and its time stamp. A commit always comes after its parents,
+ * so the file can be appended to as commits are made. Walking the
+ * history through this file never has to read a commit object.
+ *
+ * Next to it, a sorted id file holds the ids of the commits with their
+ * positions, behind a fanout table on the first byte of the id, so a
+ * commit is found by a binary search and an abbreviated id by a
+ * binary search for its first match. Commits appended since the id
+ * file was written are kept in a small map, and the id file is written
+ * again once there are more than MAX_UNINDEXED of them.
+ * @author Neman Faiz
+ */
+public class CommitGraph {
+
+    /**Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434752;
+    /**Version of the format written by this class. */
+    private static final int VERSION = 1;
+    /**Size of the header: magic, version and record count. */
+    private static final int HEADER = 12;
+    /**Size of one record. */
+    private static final int RECORD = Utils.UID_BYTES + 20;
+    /**Offset of the parent position in a record. */
+    private static final int PARENT = Utils.UID_BYTES;
+    /**Offset of the merge parent position in a record. */
+    private static final int MERGE_PARENT = PARENT + 4;
+    /**Offset of the generation number in a record. */
+    private static final int GENERATION = MERGE_PARENT + 4;
+    /**Offset of the time stamp in a record. */
+    private static final int TIME = GENERATION + 4;
+    /**Position used for a missing parent. */
+    protected static final int NONE = -1;
+    /**Magic number at the start of the id file. */
+    private static final int IDS_MAGIC = 0x47434944;
+    /**Size of the id file header: magic, version and id count. */
+    private static final int IDS_HEADER = 12;
+    /**Number of entries in the fanout table of the id file. */
+    private static final int FANOUT = 256;
+    /**Size of one entry of the id file: the id and its position. */
+    private static final int IDS_RECORD = Utils.UID_BYTES + 4;
+    /**Largest number of commits kept out of the id file. */
+    private static final int MAX_UNINDEXED = 256;
+
+    /**The commit-graph file. */
+    private final File file;
+    /**Mapped content of the file. */
+    private MappedByteBuffer buffer;
+    /**Number of commits in the file. */
+    private int count;
+    /**The sorted id file. */
+    private final File idsFile;
+    /**Mapped content of the id file, or null if there is none. */
+    private MappedByteBuffer ids;
+    /**Number of commits in the id file. */
+    private int indexed;
+    /**Map of commit id to position for commits not in the id file. */
+    private final HashMap<ObjectId, Integer> unindexed = new HashMap<>();
+
+    /**Opening a commit-graph file.
+     * @param path the commit-graph file. */
+    private CommitGraph(File path) {
+        this.file = path;
+        this.idsFile = new File(path.getPath() + ".ids");
+        remap();
+    }
+
+    /**Reading a commit-graph file.
+     * @param path the commit-graph file
+     * @return the commit graph, or null if the file is missing or
+     * was not written by this version. */
+    protected static CommitGraph load(File path) {
+        if (!path.isFile() || path.length() < HEADER) {
+            return null;
+        }
+        try {
+            CommitGraph graph = new CommitGraph(path);
+            if (graph.buffer.getInt(0) != MAGIC
+                    || graph.buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            graph.openIds(true);
+            return graph;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException excp) {
+            return null;
+        }
+    }
+
+    /**Mapping the id file.
+     * @param rewrite true to write the id file again if it is missing
+     * or too many commits were appended since it was written. */
+    private void openIds(boolean rewrite) {
+        ids = null;
+        indexed = 0;
+        if (idsFile.isFile() && idsFile.length() >= IDS_HEADER) {
+            try (RandomAccessFile raf = new RandomAccessFile(idsFile, "r");
+                 FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer mapped = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int n = mapped.getInt(8);
+                if (mapped.getInt(0) == IDS_MAGIC
+                        && mapped.getInt(4) == VERSION && n <= count
+                        && mapped.capacity() == IDS_HEADER + FANOUT * 4
+                        + (long) n * IDS_RECORD) {
+                    ids = mapped;
+                    indexed = n;
+                }
+            } catch (IOException excp) {
+                ids = null;
+            }
+        }
+        unindexed.clear();
+        for (int k = indexed; k < count; k += 1) {
+            unindexed.put(objectIdAt(k), k);
+        }
+        if (rewrite && unindexed.size() > MAX_UNINDEXED) {
+            writeIds();
+        }
+    }
+
+    /**Writing the id file for every commit of the graph. The graph
+     * still works from the map of unindexed commits if it cannot be
+     * written. */
+    private void writeIds() {
+        ObjectId[] sorted = new ObjectId[count];
+        HashMap<ObjectId, Integer> all = new HashMap<>(count * 2);
+        for (int k = 0; k < count; k += 1) {
+            sorted[k] = objectIdAt(k);
+            all.put(sorted[k], k);
+        }
+        Arrays.sort(sorted);
+        int[] fanout = new int[FANOUT];
+        for (ObjectId id : sorted) {
+            fanout[id.digit(0) * 16 + id.digit(1)] += 1;
+        }
+        for (int b = 1; b < FANOUT; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+
+        try {
+            File temp = File.createTempFile("commit-graph", ".tmp",
+                    file.getParentFile());
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(
+                                Files.newOutputStream(temp.toPath())))) {
+                    out.writeInt(IDS_MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(count);
+                    for (int b : fanout) {
+                        out.writeInt(b);
+                    }
+                    for (ObjectId id : sorted) {
+                        id.write(out);
+                        out.writeInt(all.get(id));
+                    }
+                }
+                Files.move(temp.toPath(), idsFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+        openIds(false);
+    }
+
+    /**Mapping the file again after it has grown. */
+    private void remap() {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            count = buffer.getInt(8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**@return the number of commits in the graph. */
+    protected int size() {
+        return count;
+    }
+
+    /**@param id SHA-1 id of a commit
+     * @return the position of the commit, or NONE if it is not here. */
+    protected int indexOf(String id) {
+        ObjectId key = ObjectId.fromHex(id);
+        Integer k = unindexed.get(key);
+        if (k != null) {
+            return k;
+        }
+        byte[] bytes = key.toBytes();
+        int i = lowerBound(bytes);
+        if (i < indexed && compareId(i, bytes) == 0) {
+            return checkedPosition(i);
+        }
+        return NONE;
+    }
+
+    /**Finding every commit whose id starts with a prefix, up to
+     * a limit.
+     * @param prefix an abbreviated SHA-1 id, in hex
+     * @param limit largest number of matches wanted
+     * @return the full ids of the commits found. */
+    protected List<String> resolve(String prefix, int limit) {
+        List<String> matches = new ArrayList<>();
+        String lower = prefix.toLowerCase();
+        if (lower.isEmpty() || lower.length() > Utils.UID_LENGTH
+                || !lower.matches("[0-9a-f]*")) {
+            return matches;
+        }
+        for (Map.Entry<ObjectId, Integer> entry : unindexed.entrySet()) {
+            if (matches.size() < limit
+                    && entry.getKey().toHex().startsWith(lower)) {
+                matches.add(entry.getKey().toHex());
+            }
+        }
+        String padded = lower + "0".repeat(Utils.UID_LENGTH - lower.length());
+        for (int i = lowerBound(Utils.fromHex(padded));
+             i < indexed && matches.size() < limit; i += 1) {
+            int k = checkedPosition(i);
+            if (k == NONE) {
+                continue;
+            }
+            String id = idAt(k);
+            if (!id.startsWith(lower)) {
+                break;
+            }
+            matches.add(id);
+        }
+        return matches;
+    }
+
+    /**@param id binary id of a commit
+     * @return the first position of the id file whose id is not less
+     * than ID, found within the fanout bucket of its first byte. */
+    private int lowerBound(byte[] id) {
+        if (ids == null) {
+            return indexed;
+        }
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : ids.getInt(IDS_HEADER + (first - 1) * 4);
+        int hi = ids.getInt(IDS_HEADER + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**Comparing an id of the id file with a given id.
+     * @param i position in the id file
+     * @param id binary id to compare against
+     * @return negative, zero or positive as the id at I is less than,
+     * equal to or greater than ID. */
+    private int compareId(int i, byte[] id) {
+        int base = IDS_HEADER + FANOUT * 4 + i * IDS_RECORD;
+        for (int b = 0; b < Utils.UID_BYTES; b += 1) {
+            int cmp = (ids.get(base + b) & 0xff) - (id[b] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**@param i position in the id file
+     * @return the graph position recorded for the id at I, or NONE if
+     * the graph does not have that id there, as when the graph was
+     * rebuilt and the id file was not written again. */
+    private int checkedPosition(int i) {
+        int base = IDS_HEADER + FANOUT * 4 + i * IDS_RECORD;
+        int k = ids.getInt(base + Utils.UID_BYTES);
+        if (k < 0 || k >= count) {
+            return NONE;
+        }
+        int record = HEADER + k * RECORD;
+        for (int b = 0; b < Utils.UID_BYTES; b += 1) {
+            if (buffer.get(record + b) != ids.get(base + b)) {
+                return NONE;
+            }
+        }
+        return k;
+    }
+
+    /**@param k position of a commit
+     * @return the SHA-1 id of the commit. */
+    protected String idAt(int k) {
+        return objectIdAt(k).toHex();
+    }
+
+    /**@param k position of a commit
+     * @return the id of the commit. */
+    private ObjectId objectIdAt(int k) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        int base = HEADER + k * RECORD;
+        for (int i = 0; i < id.length; i += 1) {
+            id[i] = buffer.get(base + i);
+        }
+        return ObjectId.fromBytes(id);
+    }
+
+    /**@param k position of a commit
+     * @return the position of its parent, or NONE. */
+    protected int parent(int k) {
+        return buffer.getInt(HEADER + k * RECORD + PARENT);
+    }
+
+    /**@param k position of a commit
+     * @return the position of its merge parent, or NONE. */
+    protected int mergeParent(int k) {
+        return buffer.getInt(HEADER + k * RECORD + MERGE_PARENT);
+    }
+
+    /**@param k position of a commit
+     * @return its generation number: 1 for a root commit, and one more
+     * than the largest generation of its parents otherwise. */
+    protected int generation(int k) {
+        return buffer.getInt(HEADER + k * RECORD + GENERATION);
+    }
+
+    /**@param k position of a commit
+     * @return its time stamp in seconds since the epoch. */
+    protected long time(int k) {
+        return buffer.getLong(HEADER + k * RECORD + TIME);
+    }
+
+    /**Appending a commit whose parents are already in the graph.
+     * @param commit the commit to add
+     * @return false if a parent of the commit is missing, in which case
+     * the graph needs to be rebuilt. */
+    protected boolean append(Commit commit) throws IOException {
+        if (indexOf(commit.getCommitId()) != NONE) {
+            return true;
+        }
+        int parent = position(commit.getParent());
+        int mergeParent = position(commit.getMergeParent());
+        if (parent == NONE && commit.getParent() != null
+                || mergeParent == NONE && commit.getMergeParent() != null) {
+            return false;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(HEADER + (long) count * RECORD);
+            raf.write(Utils.fromHex(commit.getCommitId()));
+            raf.writeInt(parent);
+            raf.writeInt(mergeParent);
+            raf.writeInt(1 + Math.max(generationOf(parent),
+                    generationOf(mergeParent)));
+            raf.writeLong(commit.getTime());
+            raf.seek(8);
+            raf.writeInt(count + 1);
+        }
+        remap();
+        unindexed.put(ObjectId.fromHex(commit.getCommitId()), count - 1);
+        if (unindexed.size() > MAX_UNINDEXED) {
+            writeIds();
+        }
+        return true;
+    }
+
+    /**@param id SHA-1 id of a commit, or null
+     * @return its position, or NONE. */
+    private int position(String id) {
+        return id == null ? NONE : indexOf(id);
+    }
+
+    /**@param k position of a commit, or NONE
+     * @return its generation number, or 0 for NONE. */
+    private int generationOf(int k) {
+        return k == NONE ? 0 : generation(k);
+    }
+
+    /**Writing the commit-graph file from scratch
+     * out of every commit in a directory.
+     * @param path the commit-graph file
+     * @param commitDir the directory of commit objects
+     * @param objects the object store of the repository
+     * @return the new commit graph. */
+    protected static CommitGraph rebuild(File path, File commitDir,
+                                         ObjectStore objects)
+            throws IOException {
+        HashMap<String, Commit> commits = new HashMap<>();
+        File[] files = commitDir.listFiles();
+        if (files != null) {
+            for (File commitPath : files) {
+                commits.put(commitPath.getName(),
+                        Commit.read(commitPath, objects));
+            }
+        }
+
+        List<Commit> order = new ArrayList<>();
+        HashMap<String, Integer> placed = new HashMap<>();
+        for (Commit start : commits.values()) {
+            ArrayDeque<Commit> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                Commit top = stack.peek();
+                if (placed.containsKey(top.getCommitId())) {
+                    stack.pop();
+                    continue;
+                }
+                Commit missing = null;
+                for (String parentId : new String[] {top.getParent(),
+                                                     top.getMergeParent()}) {
+                    if (parentId != null && !placed.containsKey(parentId)
+                            && commits.containsKey(parentId)) {
+                        missing = commits.get(parentId);
+                        break;
+                    }
+                }
+                if (missing != null) {
+                    stack.push(missing);
+                } else {
+                    stack.pop();
+                    placed.put(top.getCommitId(), order.size());
+                    order.add(top);
+                }
+            }
+        }
+
+        int[] generations = new int[order.size()];
+        File temp = File.createTempFile("commit-graph", ".tmp",
+                path.getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(order.size());
+                for (int k = 0; k < order.size(); k += 1) {
+                    Commit commit = order.get(k);
+                    int parent = placed.getOrDefault(commit.getParent(), NONE);
+                    int mergeParent =
+                            placed.getOrDefault(commit.getMergeParent(), NONE);
+                    generations[k] = 1 + Math.max(
+                            parent == NONE ? 0 : generations[parent],
+                            mergeParent == NONE ? 0 : generations[mergeParent]);
+                    out.write(Utils.fromHex(commit.getCommitId()));
+                    out.writeInt(parent);
+                    out.writeInt(mergeParent);
+                    out.writeInt(generations[k]);
+                    out.writeLong(commit.getTime());
+                }
+            }
+            Files.move(temp.toPath(), path.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+        CommitGraph graph = new CommitGraph(path);
+        graph.writeIds();
+        return graph;
+    }
+}
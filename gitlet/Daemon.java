@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** Represents the daemon mode of Gitlet.
+ * A daemon serves the repository of the directory it was started in
+ * over a Unix-domain socket in the Git meta directory, running one
+ * command at a time against a Repository it keeps between commands,
+ * so the caches of the Repository and the JVM stay warm.
+ * Before every command the daemon compares the state of the Git meta
+ * directory with the state it left it in, and starts over with a new
+ * Repository if another process changed it in the meantime.
+ * A command that stops with an error may leave the Repository out of
+ * step with the files, so the next command starts over too.
+ * Main forwards its arguments to a running daemon.
+ *
+ * A request is the number of arguments followed by each argument,
+ * as written by DataOutputStream.writeInt and writeUTF. The reply is
+ * a status, the length and bytes of the output of the command, and a
+ * message that is empty unless the command failed.
+ * @author Neman Faiz
+ */
+public class Daemon {
+
+    /**Socket file of the daemon. */
+    private static final File SOCKET = new File("./.gitlet/daemon.sock");
+    /**Status of a command that completed, with or without a Gitlet
+     * error message. */
+    private static final int OK = 0;
+    /**Status of a command that failed with an unexpected exception. */
+    private static final int FAILED = 1;
+
+    /**The repository commands run against, or null after a command
+     * failed. */
+    private Repository repo;
+    /**State of the Git meta directory after the last command. */
+    private String state;
+    /**False once the daemon was asked to stop. */
+    private boolean running = true;
+
+    /**Serving the repository in the current directory until a
+     * "daemon stop" request comes in. */
+    protected static void start() throws IOException {
+        if (!SOCKET.getParentFile().isDirectory()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        if (SOCKET.exists()) {
+            try (SocketChannel channel = connect()) {
+                throw Utils.error("A Gitlet daemon is already running.");
+            } catch (IOException excp) {
+                SOCKET.delete();
+            }
+        }
+
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            new Daemon().serve(server);
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**Forwarding a command to the daemon of the current directory,
+     * and printing its output.
+     * @param args the command and its operands
+     * @return false if no daemon is running, in which case the command
+     * has to be run here. */
+    protected static boolean forward(String... args) throws IOException {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = connect();
+        } catch (IOException excp) {
+            return false;
+        }
+
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    Channels.newInputStream(channel));
+            int status = in.readInt();
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            String message = in.readUTF();
+            System.out.write(output);
+            System.out.flush();
+            if (status != OK) {
+                System.err.println(message);
+                System.exit(1);
+            }
+        }
+        return true;
+    }
+
+    /**@return a channel connected to the daemon socket. */
+    private static SocketChannel connect() throws IOException {
+        return SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+    }
+
+    /**Answering requests one at a time.
+     * @param server the socket of the daemon. */
+    private void serve(ServerSocketChannel server) throws IOException {
+        while (running) {
+            try (SocketChannel channel = server.accept()) {
+                DataInputStream in = new DataInputStream(
+                        Channels.newInputStream(channel));
+                String[] args = new String[in.readInt()];
+                for (int k = 0; k < args.length; k += 1) {
+                    args[k] = in.readUTF();
+                }
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(
+                                Channels.newOutputStream(channel)));
+                handle(args, out);
+                out.flush();
+            } catch (IOException excp) {
+                continue;
+            }
+        }
+    }
+
+    /**Running one command and writing the reply.
+     * @param args the command and its operands
+     * @param out stream the reply is written to. */
+    private void handle(String[] args, DataOutputStream out)
+            throws IOException {
+        if (args.length == 2 && args[0].equals("daemon")
+                && args[1].equals("stop")) {
+            running = false;
+            reply(out, OK, new byte[0], "");
+            return;
+        }
+
+        String current = Repository.metaState();
+        if (repo == null || !current.equals(state)) {
+            repo = new Repository();
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        int status = OK;
+        String message = "";
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            if (!Main.run(repo, args)) {
+                repo = null;
+            }
+        } catch (IOException | RuntimeException excp) {
+            status = FAILED;
+            message = excp.toString();
+            repo = null;
+        } finally {
+            System.setOut(stdout);
+        }
+        state = Repository.metaState();
+        reply(out, status, output.toByteArray(), message);
+    }
+
+    /**Writing a reply.
+     * @param out stream the reply is written to
+     * @param status status of the command
+     * @param output output of the command
+     * @param message message of a failed command. */
+    private static void reply(DataOutputStream out, int status,
+                              byte[] output, String message)
+            throws IOException {
+        out.writeInt(status);
+        out.writeInt(output.length);
+        out.write(output);
+        out.writeUTF(message);
+    }
+}
@@ -0,0 +1,215 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Represents binary deltas between two versions of an object.
+ * A delta is the sizes of the base and of the target, followed by
+ * instructions that either copy a range of the base or insert bytes
+ * given in the delta. Matches are found through a hash table over
+ * the base, with one entry per block of BLOCK bytes, and a hash of the
+ * target that rolls forward one byte at a time.
+ * @author Neman Faiz
+ */
+public class Delta {
+
+    /**Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /**Largest number of base blocks tried for one position. */
+    private static final int MAX_CHAIN = 64;
+    /**Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    /**Instruction inserting bytes of the delta. */
+    private static final int INSERT = 0;
+    /**Instruction copying a range of the base. */
+    private static final int COPY = 1;
+
+    /**Computing the delta that turns one object into another.
+     * @param base content of the base object
+     * @param target content of the target object
+     * @return the delta. */
+    protected static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out =
+                new ByteArrayOutputStream(target.length / 8 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        if (base.length < BLOCK || target.length < BLOCK) {
+            insert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(blocks) * 2 - 1;
+        int[] head = new int[mask + 1];
+        int[] next = new int[blocks];
+        Arrays.fill(head, -1);
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            int slot = spread(hash(base, b * BLOCK)) & mask;
+            next[b] = head[slot];
+            head[slot] = b;
+        }
+
+        int power = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            power *= PRIME;
+        }
+        int pending = 0;
+        int i = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            int bestOffset = 0;
+            int bestLength = 0;
+            int tries = 0;
+            for (int b = head[spread(h) & mask]; b >= 0 && tries < MAX_CHAIN;
+                 b = next[b], tries += 1) {
+                int length = matchLength(base, b * BLOCK, target, i);
+                if (length > bestLength) {
+                    bestOffset = b * BLOCK;
+                    bestLength = length;
+                }
+            }
+
+            if (bestLength >= BLOCK) {
+                while (bestOffset > 0 && i > pending
+                        && base[bestOffset - 1] == target[i - 1]) {
+                    bestOffset -= 1;
+                    i -= 1;
+                    bestLength += 1;
+                }
+                insert(out, target, pending, i - pending);
+                out.write(COPY);
+                writeVarint(out, bestOffset);
+                writeVarint(out, bestLength);
+                i += bestLength;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * power) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length - pending);
+        return out.toByteArray();
+    }
+
+    /**Rebuilding an object from its base and a delta.
+     * @param base content of the base object
+     * @param delta the delta, as made by create
+     * @return content of the target object. */
+    protected static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        byte[] target = new byte[readVarint(delta, pos)];
+        int written = 0;
+        try {
+            while (pos[0] < delta.length) {
+                int op = delta[pos[0]];
+                pos[0] += 1;
+                if (op == COPY) {
+                    int offset = readVarint(delta, pos);
+                    int length = readVarint(delta, pos);
+                    System.arraycopy(base, offset, target, written, length);
+                    written += length;
+                } else if (op == INSERT) {
+                    int length = readVarint(delta, pos);
+                    System.arraycopy(delta, pos[0], target, written, length);
+                    pos[0] += length;
+                    written += length;
+                } else {
+                    throw Utils.error("Corrupt delta.");
+                }
+            }
+        } catch (IndexOutOfBoundsException excp) {
+            throw Utils.error("Corrupt delta.");
+        }
+        if (written != target.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return target;
+    }
+
+    /**@param bytes an array of bytes
+     * @param start position of the first byte
+     * @return the hash of the BLOCK bytes from START. */
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + bytes[k];
+        }
+        return h;
+    }
+
+    /**@param h a hash
+     * @return the hash with its high bits folded into its low bits. */
+    private static int spread(int h) {
+        return h ^ (h >>> 15);
+    }
+
+    /**@param base content of the base
+     * @param offset position in the base
+     * @param target content of the target
+     * @param start position in the target
+     * @return the number of equal bytes from OFFSET and START. */
+    private static int matchLength(byte[] base, int offset, byte[] target,
+                                   int start) {
+        int length = 0;
+        while (offset + length < base.length
+                && start + length < target.length
+                && base[offset + length] == target[start + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    /**Writing an insert instruction, unless it would be empty.
+     * @param out stream the delta is written to
+     * @param bytes bytes of the target
+     * @param start position of the first byte to insert
+     * @param length number of bytes to insert. */
+    private static void insert(ByteArrayOutputStream out, byte[] bytes,
+                               int start, int length) {
+        if (length > 0) {
+            out.write(INSERT);
+            writeVarint(out, length);
+            out.write(bytes, start, length);
+        }
+    }
+
+    /**Writing a number seven bits at a time, lowest first, with the
+     * high bit of every byte but the last set.
+     * @param out stream the number is written to
+     * @param value the number, not negative. */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**Reading a number written by writeVarint.
+     * @param bytes the delta
+     * @param pos position to read from, moved past the number
+     * @return the number. */
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= bytes.length || shift > 28) {
+                throw Utils.error("Corrupt delta.");
+            }
+            b = bytes[pos[0]];
+            pos[0] += 1;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
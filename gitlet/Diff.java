@@ -6,19 +6,19 @@ import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 
-import static java.lang.Math.max;
-
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
- *  next.
+ *  next.  Lines are turned into numbers first, so they are compared as ints,
+ *  and the common subsequence is found with the linear-space variant of
+ *  Myers' O(ND) algorithm, where D is the size of the difference.
  *  @author P. N. Hilfinger */
 public class Diff {
 
@@ -27,8 +27,8 @@ public class Diff {
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        _ids1 = _ids2 = null;
+        _common = null;
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +48,8 @@ public class Diff {
                  excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        _ids1 = _ids2 = null;
+        _common = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,76 +76,35 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
-        if (k1 == 0 || k2 == 0
-            || k1 > _lines1.size() || k2 > _lines2.size()) {
+        k1 = Math.min(k1, _lines1.size());
+        k2 = Math.min(k2, _lines2.size());
+        if (k1 <= 0 || k2 <= 0) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                            = max(_lls[_llsTop1][_llsTop2 - 1],
-                                  _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                            = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
         }
-        return _lls[k1][k2];
+        if (k1 == _lines1.size() && k2 == _lines2.size()) {
+            return lls();
+        }
+        intern();
+        return (k1 + k2 - editDistance(k1, k2)) / 2;
     }
 
     /** Return the length of the longest common subsequence of the current
      *  data subsequences. */
     public int lls() {
-        checkData();
-        return lls(_lines1.size(), _lines2.size());
+        int[] common = commonSubsequence();
+        int total;
+        total = 0;
+        for (int k = 2; k < common.length; k += 3) {
+            total += common[k];
+        }
+        return total;
     }
 
     /** Return true iff the sequences currently being compared have identical
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
+        return _lines1.equals(_lines2);
     }
 
     /** Return an array containing the int values of the items in LIST. */
@@ -166,30 +125,20 @@ public class Diff {
      *  first file (0-based), si2 is the starting position in the second
      *  file, and Li is the length of the subsequence. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
-            } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                       && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
-                }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
-            }
+        checkData();
+        if (_common == null) {
+            intern();
+            int n = _ids1.length, m = _ids2.length;
+            int size = 2 * ((n + m + 1) / 2) + 3;
+            _forward = new int[size];
+            _backward = new int[size];
+            _runs = new int[48];
+            _runCount = 0;
+            lcs(0, n, 0, m);
+            _common = Arrays.copyOf(_runs, _runCount);
+            _forward = _backward = _runs = null;
         }
-        return toIntArr(resultList);
+        return _common;
     }
 
     /** Return the edit that converts the first of the sequences being compared
@@ -232,45 +181,180 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
+    /** Set _ids1 and _ids2 to the lines of the current sequences, each
+     *  line replaced by a number that is the same for equal lines, unless
+     *  that was already done. */
+    private void intern() {
+        if (_ids1 != null) {
+            return;
+        }
+        HashMap<String, Integer> ids = new HashMap<>();
+        _ids1 = new int[_lines1.size()];
+        _ids2 = new int[_lines2.size()];
+        int i;
+        i = 0;
+        for (String line : _lines1) {
+            _ids1[i] = ids.computeIfAbsent(line, x -> ids.size());
+            i += 1;
+        }
+        i = 0;
+        for (String line : _lines2) {
+            _ids2[i] = ids.computeIfAbsent(line, x -> ids.size());
+            i += 1;
+        }
+    }
+
+    /** Add the runs of a longest common subsequence of lines [LO1 .. HI1 - 1]
+     *  of the first sequence and [LO2 .. HI2 - 1] of the second to _runs,
+     *  in order.  The sequences are split at the middle snake of an
+     *  optimal edit path, and each half is done the same way, so the
+     *  space used is linear in the lengths of the sequences. */
+    private void lcs(int lo1, int hi1, int lo2, int hi2) {
+        while (lo1 < hi1 && lo2 < hi2 && _ids1[lo1] == _ids2[lo2]) {
+            addRun(lo1, lo2, 1);
+            lo1 += 1; lo2 += 1;
+        }
+        int tail;
+        tail = 0;
+        while (lo1 < hi1 - tail && lo2 < hi2 - tail
+               && _ids1[hi1 - tail - 1] == _ids2[hi2 - tail - 1]) {
+            tail += 1;
+        }
+        hi1 -= tail; hi2 -= tail;
+        if (lo1 < hi1 && lo2 < hi2) {
+            int[] snake = middleSnake(lo1, hi1, lo2, hi2);
+            lcs(lo1, snake[0], lo2, snake[1]);
+            addRun(snake[0], snake[1], snake[2] - snake[0]);
+            lcs(snake[2], hi1, snake[3], hi2);
+        }
+        addRun(hi1, hi2, tail);
     }
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
+    /** Return the middle snake of a shortest edit path from lines
+     *  [LO1 .. HI1 - 1] of the first sequence to lines [LO2 .. HI2 - 1] of
+     *  the second, as the values x0, y0, x1, y1, where the snake runs
+     *  diagonally from line positions (x0, y0) to (x1, y1).  Paths are
+     *  followed from both ends at once, as in E. Myers, "An O(ND)
+     *  Difference Algorithm and Its Variations", until they overlap.
+     *  The first and last lines of the two ranges must differ. */
+    private int[] middleSnake(int lo1, int hi1, int lo2, int hi2) {
+        int n = hi1 - lo1, m = hi2 - lo2;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int limit = (n + m + 1) / 2;
+        int off = limit + 1;
+        int[] vf = _forward, vb = _backward;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= limit; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1])) {
+                    x = vf[off + k + 1];
+                } else {
+                    x = vf[off + k - 1] + 1;
+                }
+                int x0 = x, y = x - k;
+                while (x < n && y < m && _ids1[lo1 + x] == _ids2[lo2 + y]) {
+                    x += 1; y += 1;
+                }
+                vf[off + k] = x;
+                int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1
+                    && x + vb[off + r] >= n) {
+                    return new int[] { lo1 + x0, lo2 + x0 - k, lo1 + x,
+                                       lo2 + y };
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1])) {
+                    x = vb[off + k + 1];
+                } else {
+                    x = vb[off + k - 1] + 1;
+                }
+                int x0 = x, y = x - k;
+                while (x < n && y < m
+                       && _ids1[hi1 - 1 - x] == _ids2[hi2 - 1 - y]) {
+                    x += 1; y += 1;
+                }
+                vb[off + k] = x;
+                int r = delta - k;
+                if (!odd && r >= -d && r <= d && x + vf[off + r] >= n) {
+                    return new int[] { hi1 - x, hi2 - y, hi1 - x0,
+                                       hi2 - x0 + k };
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
     }
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
+    /** Return the length of a shortest edit script between the first K1
+     *  lines of the first sequence and the first K2 lines of the second,
+     *  following paths forward only. */
+    private int editDistance(int k1, int k2) {
+        int limit = k1 + k2;
+        int off = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        for (int d = 0; d <= limit; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+                    x = v[off + k + 1];
+                } else {
+                    x = v[off + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < k1 && y < k2 && _ids1[x] == _ids2[y]) {
+                    x += 1; y += 1;
+                }
+                v[off + k] = x;
+                if (x >= k1 && y >= k2) {
+                    return d;
+                }
+            }
+        }
+        return limit;
     }
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
+    /** Add a run of L lines common to both sequences, starting at line
+     *  positions S1 and S2, to _runs, joining it to the last run if they
+     *  touch. */
+    private void addRun(int s1, int s2, int L) {
+        if (L == 0) {
+            return;
+        }
+        if (_runCount > 0 && _runs[_runCount - 3] + _runs[_runCount - 1] == s1
+            && _runs[_runCount - 2] + _runs[_runCount - 1] == s2) {
+            _runs[_runCount - 1] += L;
+            return;
+        }
+        if (_runCount + 3 > _runs.length) {
+            _runs = Arrays.copyOf(_runs, 2 * _runs.length);
+        }
+        _runs[_runCount] = s1;
+        _runs[_runCount + 1] = s2;
+        _runs[_runCount + 2] = L;
+        _runCount += 3;
     }
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The lines of the sequences being compared, as numbers that are
+     *  equal exactly where the lines are, or null if not computed. */
+    private int[] _ids1, _ids2;
+
+    /** The result of commonSubsequence, or null if not computed. */
+    private int[] _common;
+
+    /** Furthest reaching paths along each diagonal, forward from the
+     *  start and backward from the end, used by middleSnake. */
+    private int[] _forward, _backward;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** The runs found so far by commonSubsequence, as it returns them. */
+    private int[] _runs;
+    /** Number of values in _runs. */
+    private int _runCount;
 
 }
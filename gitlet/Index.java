@@ -0,0 +1,455 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/** Represents the index file of a repository.
+ * The index holds the staging area, the files staged for addition with
+ * their blobs and the files staged for removal, and a stat cache of
+ * the working directory. The stat cache records the size, modification
+ * time, inode and blob of every file hashed so far, so a file whose
+ * stat data has not changed is not read and hashed again.
+ * A file modified in the same clock tick the index was written in could
+ * keep its stat data, so an entry is only trusted when the file is older
+ * than the index, and such racy entries are dropped when writing.
+ * The blobs of the stat cache are held as ObjectIds, so loading a large
+ * cache does not make a hex string per file.
+ * @author Neman Faiz
+ */
+public class Index {
+
+    /**Magic number at the start of the file. */
+    private static final int MAGIC = 0x47494e58;
+    /**Version of the format written by this class. */
+    private static final int VERSION = 1;
+
+    /**Represents the stat data and blob of a working file. */
+    private static class Entry {
+        /**Size of the file in bytes. */
+        private final long size;
+        /**Modification time of the file in nanoseconds. */
+        private final long mtime;
+        /**Inode of the file, or 0 where the file system has none. */
+        private final long inode;
+        /**SHA-1 id of the content of the file. */
+        private final ObjectId blob;
+
+        /**Creating a stat cache entry.
+         * @param fileSize size of the file
+         * @param fileMtime modification time of the file
+         * @param fileInode inode of the file
+         * @param fileBlob SHA-1 id of the content of the file. */
+        Entry(long fileSize, long fileMtime, long fileInode,
+              ObjectId fileBlob) {
+            this.size = fileSize;
+            this.mtime = fileMtime;
+            this.inode = fileInode;
+            this.blob = fileBlob;
+        }
+
+        /**@param other the stat data of a file
+         * @return true if OTHER has the same size, time and inode. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime
+                    && inode == other.inode;
+        }
+    }
+
+    /**True while the file system reports unix attributes. */
+    private static volatile boolean unixAttributes = true;
+
+    /**The index file. */
+    private final File file;
+    /**Modification time of the index file when it was read,
+     * in nanoseconds. */
+    private long stamp = Long.MIN_VALUE;
+    /**Map of file name to blob for files staged for addition. */
+    private final TreeMap<String, String> stagedForAddition = new TreeMap<>();
+    /**Names of files staged for removal. */
+    private final TreeSet<String> stagedForRemoval = new TreeSet<>();
+    /**Map of file name to its stat cache entry. */
+    private final TreeMap<String, Entry> stats = new TreeMap<>();
+    /**True if this index differs from the file. */
+    private boolean dirty;
+    /**True while writes are held back until flush. */
+    private boolean deferred;
+
+    /**Creating an empty index.
+     * @param path the index file. */
+    private Index(File path) {
+        this.file = path;
+    }
+
+    /**Reading an index file. A repository made before the index file
+     * keeps one Staging or Destaging object per staged file, and those
+     * are read instead when there is no index file yet.
+     * @param path the index file
+     * @param stagingDir directory of older Staging objects
+     * @param destagingDir directory of older Destaging objects
+     * @return the index. */
+    protected static Index read(File path, File stagingDir,
+                                File destagingDir) {
+        Index index = new Index(path);
+        if (path.isFile()) {
+            index.load();
+        } else {
+            index.loadLegacy(stagingDir, destagingDir);
+        }
+        return index;
+    }
+
+    /**Reading the content of the index file. */
+    private void load() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt index.");
+            }
+            int added = in.readInt();
+            for (int k = 0; k < added; k += 1) {
+                String name = in.readUTF();
+                stagedForAddition.put(name, readId(in));
+            }
+            int removed = in.readInt();
+            for (int k = 0; k < removed; k += 1) {
+                stagedForRemoval.add(in.readUTF());
+            }
+            int cached = in.readInt();
+            for (int k = 0; k < cached; k += 1) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                stats.put(name, new Entry(size, mtime, inode,
+                        ObjectId.read(in)));
+            }
+            stamp = toNanos(Files.getLastModifiedTime(file.toPath()));
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt index.");
+        }
+    }
+
+    /**Reading the staging area of an older repository.
+     * @param stagingDir directory of Staging objects
+     * @param destagingDir directory of Destaging objects. */
+    private void loadLegacy(File stagingDir, File destagingDir) {
+        File[] staged = stagingDir.listFiles();
+        if (staged != null) {
+            for (File stagedFile : staged) {
+                Staging staging = Utils.readObject(stagedFile, Staging.class);
+                stagedForAddition.putAll(staging.getStagedForAddition());
+            }
+        }
+        File[] removed = destagingDir.listFiles();
+        if (removed != null) {
+            for (File removedFile : removed) {
+                stagedForRemoval.add(removedFile.getName());
+            }
+        }
+        dirty = staged != null || removed != null;
+    }
+
+    /**Writing the index file if it has changed. Entries whose file is
+     * not older than the new index file are dropped, and the file is
+     * written again without them. */
+    protected void write() throws IOException {
+        if (!dirty || deferred) {
+            return;
+        }
+        File temp = File.createTempFile("index", ".tmp", file.getParentFile());
+        try {
+            writeTo(temp);
+            long written = toNanos(Files.getLastModifiedTime(temp.toPath()));
+            if (stats.values().removeIf(entry -> entry.mtime >= written)) {
+                writeTo(temp);
+            }
+            stamp = toNanos(Files.getLastModifiedTime(temp.toPath()));
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+        dirty = false;
+    }
+
+    /**Holding back writes until flush, so a batch of commands
+     * writes the index file once. */
+    protected void defer() {
+        deferred = true;
+    }
+
+    /**Writing the index file if it has changed since it was read or
+     * last written, and no longer holding back writes. */
+    protected void flush() throws IOException {
+        deferred = false;
+        write();
+    }
+
+    /**Helper function to write.
+     * @param path the file to write this index to. */
+    private void writeTo(File path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(path.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stagedForAddition.size());
+            for (Map.Entry<String, String> entry
+                    : stagedForAddition.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(Utils.fromHex(entry.getValue()));
+            }
+            out.writeInt(stagedForRemoval.size());
+            for (String name : stagedForRemoval) {
+                out.writeUTF(name);
+            }
+            out.writeInt(stats.size());
+            for (Map.Entry<String, Entry> entry : stats.entrySet()) {
+                Entry stat = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(stat.size);
+                out.writeLong(stat.mtime);
+                out.writeLong(stat.inode);
+                stat.blob.write(out);
+            }
+        }
+    }
+
+    /**@return the map of file name to blob of files staged
+     * for addition, sorted by name. */
+    protected Map<String, String> getStagedForAddition() {
+        return stagedForAddition;
+    }
+
+    /**@return the names of files staged for removal, sorted. */
+    protected Set<String> getStagedForRemoval() {
+        return stagedForRemoval;
+    }
+
+    /**@param fileName name of a file
+     * @return true if the file is staged for addition. */
+    protected boolean isStaged(String fileName) {
+        return stagedForAddition.containsKey(fileName);
+    }
+
+    /**@param fileName name of a file
+     * @return true if the file is staged for removal. */
+    protected boolean isRemoved(String fileName) {
+        return stagedForRemoval.contains(fileName);
+    }
+
+    /**@return true if nothing is staged for addition or removal. */
+    protected boolean isEmpty() {
+        return stagedForAddition.isEmpty() && stagedForRemoval.isEmpty();
+    }
+
+    /**Staging a file for addition.
+     * @param fileName name of the file
+     * @param blob SHA-1 id of the content to stage. */
+    protected void stage(String fileName, String blob) {
+        stagedForAddition.put(fileName, blob);
+        dirty = true;
+    }
+
+    /**Removing a file from the files staged for addition.
+     * @param fileName name of the file
+     * @return the blob that was staged, or null. */
+    protected String unstage(String fileName) {
+        String blob = stagedForAddition.remove(fileName);
+        dirty |= blob != null;
+        return blob;
+    }
+
+    /**Staging a file for removal.
+     * @param fileName name of the file. */
+    protected void stageForRemoval(String fileName) {
+        dirty |= stagedForRemoval.add(fileName);
+    }
+
+    /**Removing a file from the files staged for removal.
+     * @param fileName name of the file. */
+    protected void unstageRemoval(String fileName) {
+        dirty |= stagedForRemoval.remove(fileName);
+    }
+
+    /**Clearing the files staged for addition. */
+    protected void clearStagedForAddition() {
+        dirty |= !stagedForAddition.isEmpty();
+        stagedForAddition.clear();
+    }
+
+    /**Clearing the files staged for addition and removal. */
+    protected void clear() {
+        clearStagedForAddition();
+        dirty |= !stagedForRemoval.isEmpty();
+        stagedForRemoval.clear();
+    }
+
+    /**Finding the blob of a working file. The file is only read and
+     * hashed when its stat data differs from the cached entry, or when
+     * the entry is racy.
+     * @param name name of the file
+     * @param workFile the working file
+     * @return the SHA-1 id of the content of the file. */
+    protected String blobOf(String name, File workFile) throws IOException {
+        Entry entry = lookup(name, workFile);
+        record(name, entry);
+        return entry.blob.toHex();
+    }
+
+    /**Finding the blobs of many working files, reading and hashing
+     * them on a pool of one thread per core.
+     * @param files map of file name to working file
+     * @return map of file name to the SHA-1 id of its content. */
+    protected HashMap<String, String> blobsOf(Map<String, File> files)
+            throws IOException {
+        HashMap<String, String> blobs = new HashMap<>(files.size() * 2);
+        if (files.size() <= 1) {
+            for (Map.Entry<String, File> file : files.entrySet()) {
+                blobs.put(file.getKey(),
+                        blobOf(file.getKey(), file.getValue()));
+            }
+            return blobs;
+        }
+
+        int threads = Math.min(files.size(),
+                Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            LinkedHashMap<String, Future<Entry>> pending =
+                    new LinkedHashMap<>(files.size() * 2);
+            for (Map.Entry<String, File> file : files.entrySet()) {
+                pending.put(file.getKey(), pool.submit(() ->
+                        lookup(file.getKey(), file.getValue())));
+            }
+            LinkedHashMap<String, Entry> entries =
+                    new LinkedHashMap<>(files.size() * 2);
+            for (Map.Entry<String, Future<Entry>> entry
+                    : pending.entrySet()) {
+                entries.put(entry.getKey(), entry.getValue().get());
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                record(entry.getKey(), entry.getValue());
+                blobs.put(entry.getKey(), entry.getValue().blob.toHex());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException(excp);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof IOException) {
+                throw (IOException) excp.getCause();
+            }
+            throw new IOException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return blobs;
+    }
+
+    /**Recording the stat data of a working file that was just written
+     * from a known blob, so it is not read and hashed again. It may be
+     * called from many threads at once.
+     * @param name name of the file
+     * @param workFile the working file
+     * @param blob SHA-1 id of the content written to it. */
+    protected void refresh(String name, File workFile, String blob)
+            throws IOException {
+        Entry current = statOf(workFile);
+        Entry entry = new Entry(current.size, current.mtime, current.inode,
+                ObjectId.fromHex(blob));
+        synchronized (this) {
+            record(name, entry);
+        }
+    }
+
+    /**Dropping the stat data of a working file that was removed.
+     * @param name name of the file. */
+    protected synchronized void forget(String name) {
+        dirty |= stats.remove(name) != null;
+    }
+
+    /**Helper function to blobOf and blobsOf. It only reads the stat
+     * cache, so it can run on many threads at once.
+     * @param name name of the file
+     * @param workFile the working file
+     * @return the cached entry of the file if it can be trusted, or a
+     * new entry with the stat data and blob of the file. */
+    private Entry lookup(String name, File workFile) throws IOException {
+        Entry current = statOf(workFile);
+        Entry cached = stats.get(name);
+        if (cached != null && cached.sameStat(current)
+                && cached.mtime < stamp) {
+            return cached;
+        }
+        ObjectId blob = ObjectId.fromHex(Utils.sha1(workFile));
+        return new Entry(current.size, current.mtime, current.inode, blob);
+    }
+
+    /**Helper function to blobOf and blobsOf.
+     * @param name name of a file
+     * @param entry the entry found for it by lookup. */
+    private void record(String name, Entry entry) {
+        if (stats.get(name) != entry) {
+            stats.put(name, entry);
+            dirty = true;
+        }
+    }
+
+    /**Reading the stat data of a file.
+     * @param workFile the file
+     * @return an entry with the stat data of the file and no blob. */
+    private static Entry statOf(File workFile) throws IOException {
+        if (unixAttributes) {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(
+                        workFile.toPath(), "unix:size,lastModifiedTime,ino",
+                        LinkOption.NOFOLLOW_LINKS);
+                return new Entry((Long) attrs.get("size"),
+                        toNanos((FileTime) attrs.get("lastModifiedTime")),
+                        (Long) attrs.get("ino"), null);
+            } catch (UnsupportedOperationException
+                     | IllegalArgumentException excp) {
+                unixAttributes = false;
+            }
+        }
+        BasicFileAttributes attrs = Files.readAttributes(workFile.toPath(),
+                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return new Entry(attrs.size(), toNanos(attrs.lastModifiedTime()),
+                0, null);
+    }
+
+    /**@param time a file time
+     * @return the time in nanoseconds since the epoch. */
+    private static long toNanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /**Helper function to load.
+     * @param in stream the index is read from
+     * @return the next SHA-1 id of the stream, in hex. */
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_BYTES];
+        in.readFully(id);
+        return Utils.toHex(id);
+    }
+}
@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Represents the line-level three-way merge of a file, as in diff3.
+ * The head and given versions are each diffed against the version at
+ * the split point. Lines neither side changed are kept, a change made
+ * on one side only is taken, and a change both sides made the same way
+ * is taken once. Where the two sides changed overlapping or touching
+ * lines differently, the region is written between conflict markers,
+ * after dropping the lines both sides begin or end it with, so the
+ * markers only surround lines that really differ. A file one side
+ * deleted and the other changed is a conflict of the whole file, with
+ * nothing on the deleted side. The merged file is written out as it is
+ * found.
+ * @author Neman Faiz
+ */
+public class LineMerge {
+
+    /**Marker starting the head side of a conflict. */
+    private static final String HEAD_MARKER = "<<<<<<< HEAD\n";
+    /**Marker between the two sides of a conflict. */
+    private static final String SPLIT_MARKER = "=======\n";
+    /**Marker ending the given side of a conflict. */
+    private static final String END_MARKER = ">>>>>>>\n";
+
+    /**Lines at the split point. */
+    private final List<String> base;
+    /**Lines of the head version. */
+    private final List<String> head;
+    /**Lines of the given version. */
+    private final List<String> given;
+    /**Writer the merged file is written to. */
+    private final Writer out;
+
+    /**Creating a merge.
+     * @param baseLines lines at the split point
+     * @param headLines lines of the head version
+     * @param givenLines lines of the given version
+     * @param writer writer the merged file is written to. */
+    private LineMerge(List<String> baseLines, List<String> headLines,
+                      List<String> givenLines, Writer writer) {
+        this.base = baseLines;
+        this.head = headLines;
+        this.given = givenLines;
+        this.out = writer;
+    }
+
+    /**Merging three versions of a file.
+     * @param base content at the split point, or null if there was none
+     * @param head content of the head version, or null if deleted
+     * @param given content of the given version, or null if deleted
+     * @param out writer the merged file is written to
+     * @return true if there were conflicts. */
+    protected static boolean merge(String base, String head, String given,
+                                   Writer out) throws IOException {
+        if ((head == null) != (given == null)) {
+            out.write(HEAD_MARKER);
+            out.write(head == null ? "" : head);
+            out.write(SPLIT_MARKER);
+            out.write(given == null ? "" : given);
+            out.write(END_MARKER);
+            return true;
+        }
+        return new LineMerge(lines(base), lines(head), lines(given), out)
+                .run();
+    }
+
+    /**@param content content of a file, or null
+     * @return the lines of CONTENT, each with its line terminator,
+     * the last one without it if the file does not end with one. */
+    protected static List<String> lines(String content) {
+        List<String> lines = new ArrayList<>();
+        if (content == null) {
+            return lines;
+        }
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            end = end < 0 ? content.length() : end + 1;
+            lines.add(content.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /**Writing the merged file.
+     * @return true if there were conflicts. */
+    private boolean run() throws IOException {
+        int[] headHunks = hunks(head);
+        int[] givenHunks = hunks(given);
+        int h = 0, g = 0;
+        int headShift = 0, givenShift = 0;
+        int pos = 0;
+        boolean conflict = false;
+        while (h < headHunks.length || g < givenHunks.length) {
+            int lo;
+            if (g >= givenHunks.length || (h < headHunks.length
+                    && headHunks[h] <= givenHunks[g])) {
+                lo = headHunks[h];
+            } else {
+                lo = givenHunks[g];
+            }
+            int hi = lo;
+            int headFirst = h, givenFirst = g;
+            int headGrowth = 0, givenGrowth = 0;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (h < headHunks.length && headHunks[h] <= hi) {
+                    hi = Math.max(hi, headHunks[h] + headHunks[h + 1]);
+                    headGrowth += headHunks[h + 3] - headHunks[h + 1];
+                    h += 4;
+                    grew = true;
+                }
+                if (g < givenHunks.length && givenHunks[g] <= hi) {
+                    hi = Math.max(hi, givenHunks[g] + givenHunks[g + 1]);
+                    givenGrowth += givenHunks[g + 3] - givenHunks[g + 1];
+                    g += 4;
+                    grew = true;
+                }
+            }
+
+            write(base, pos, lo);
+            int headLo = lo + headShift;
+            int headHi = hi + headShift + headGrowth;
+            int givenLo = lo + givenShift;
+            int givenHi = hi + givenShift + givenGrowth;
+            if (g == givenFirst) {
+                write(head, headLo, headHi);
+            } else if (h == headFirst) {
+                write(given, givenLo, givenHi);
+            } else {
+                conflict |= resolve(headLo, headHi, givenLo, givenHi);
+            }
+            headShift += headGrowth;
+            givenShift += givenGrowth;
+            pos = hi;
+        }
+        write(base, pos, base.size());
+        return conflict;
+    }
+
+    /**Writing a region both sides changed.
+     * @param headLo first line of the region in the head version
+     * @param headHi line after the region in the head version
+     * @param givenLo first line of the region in the given version
+     * @param givenHi line after the region in the given version
+     * @return true if the sides differ. */
+    private boolean resolve(int headLo, int headHi, int givenLo,
+                            int givenHi) throws IOException {
+        while (headLo < headHi && givenLo < givenHi
+                && head.get(headLo).equals(given.get(givenLo))) {
+            out.write(head.get(headLo));
+            headLo += 1;
+            givenLo += 1;
+        }
+        int tail = 0;
+        while (headLo < headHi - tail && givenLo < givenHi - tail
+                && head.get(headHi - tail - 1)
+                .equals(given.get(givenHi - tail - 1))) {
+            tail += 1;
+        }
+        boolean conflict = headLo < headHi - tail || givenLo < givenHi - tail;
+        if (conflict) {
+            out.write(HEAD_MARKER);
+            write(head, headLo, headHi - tail);
+            out.write(SPLIT_MARKER);
+            write(given, givenLo, givenHi - tail);
+            out.write(END_MARKER);
+        }
+        write(head, headHi - tail, headHi);
+        return conflict;
+    }
+
+    /**@param side lines of one version
+     * @return the changes from the split point to SIDE, as returned by
+     * Diff.diffs. */
+    private int[] hunks(List<String> side) {
+        Diff diff = new Diff();
+        diff.setSequences(base, side);
+        return diff.diffs();
+    }
+
+    /**Writing a range of lines.
+     * @param lines lines of a version
+     * @param from first line written
+     * @param to line after the last line written. */
+    private void write(List<String> lines, int from, int to)
+            throws IOException {
+        for (int k = from; k < to; k += 1) {
+            out.write(lines.get(k));
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Neman Faiz
@@ -8,10 +12,70 @@ import java.io.IOException;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> ....
+     *  "batch" runs the commands read from the standard input, one per
+     *  line. When a daemon is running for the repository in the current
+     *  directory, other ARGS are forwarded to it instead of being run
+     *  here. */
     public static void main(String... args) throws IOException {
 
-        Repository repo = new Repository();
+        if (args.length > 0 && args[0].equals("daemon")) {
+            daemon(args);
+        } else if (args.length > 0 && args[0].equals("batch")) {
+            if (args.length == 1) {
+                Batch.run(new Repository(), new BufferedReader(
+                        new InputStreamReader(System.in,
+                                StandardCharsets.UTF_8)));
+            } else {
+                System.out.println("Incorrect operands.");
+            }
+        } else if (!Daemon.forward(args)) {
+            run(new Repository(), args);
+        }
+    }
+
+    /** Handles the daemon command: "daemon" serves the repository in
+     *  the current directory until "daemon stop" is run.
+     *  @param args the arguments of the command. */
+    private static void daemon(String... args) throws IOException {
+        try {
+            if (args.length == 1) {
+                Daemon.start();
+            } else if (args.length == 2 && args[1].equals("stop")) {
+                if (!Daemon.forward(args)) {
+                    System.out.println("No Gitlet daemon is running.");
+                }
+            } else {
+                System.out.println("Incorrect operands.");
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Runs the command in ARGS against REPO. A command that stops
+     *  with a GitletException has its message printed, if any.
+     *  @param repo the repository
+     *  @param args the command and its operands
+     *  @return false if the command stopped with a GitletException. */
+    protected static boolean run(Repository repo, String... args)
+            throws IOException {
+        try {
+            dispatch(repo, args);
+            return true;
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /** Calls the method of REPO for the command in ARGS.
+     *  @param repo the repository
+     *  @param args the command and its operands. */
+    private static void dispatch(Repository repo, String... args)
+            throws IOException {
 
         if (args.length == 0) {
             System.out.println("Please enter a command.");
@@ -20,15 +84,23 @@ public class Main {
                 repo.init();
 
             } else if (args[0].equals("add")) {
-                repo.add(args[1]);
+                if (args.length < 2) {
+                    System.out.println("Incorrect operands.");
+                } else {
+                    repo.add(Arrays.copyOfRange(args, 1, args.length));
+                }
 
             } else if (args[0].equals("commit")) {
-                repo.commit(args[1]);
+                if (args.length < 2) {
+                    System.out.println("Please enter a commit message.");
+                } else {
+                    repo.commit(args[1]);
+                }
             } else if (args[0].equals("log")) {
                 repo.log();
             } else if (args[0].equals("checkout")) {
                 if (args.length == 3) {
-                    if (args[1].equals("--")) {
+                    if (args[1].equals("--") || args[2].equals("--stat")) {
                         repo.checkout(args);
                     } else {
                         System.out.println("Incorrect operands.");
@@ -50,20 +122,27 @@ public class Main {
             } else if (args[0].equals("global-log")) {
                 repo.globalLog();
             } else if (args[0].equals("find")) {
-                repo.find(args[1]);
+                if (args.length == 3) {
+                    repo.find(args[1], args[2]);
+                } else {
+                    repo.find(null, args[1]);
+                }
             } else if (args[0].equals("status")) {
-                repo.status();
+                repo.status(args.length == 2
+                        && args[1].equals("--renames"));
             } else if (args[0].equals("branch")) {
                 repo.branch(args[1]);
             } else if (args[0].equals("rm-branch")) {
                 repo.removeBranch(args[1]);
             }   else if (args[0].equals("reset")) {
-                repo.reset(args[1]);
+                repo.reset(args[1], args.length == 3
+                        && args[2].equals("--stat"));
             } else if (args[0].equals("merge")) {
                 repo.merge(args[1]);
+            } else if (args[0].equals("repack")) {
+                repo.repack();
             } else {
                 System.out.println("No command with that name exists.");
-                System.exit(0);
             }
         }
     }
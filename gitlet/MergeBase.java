@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the best common ancestors of two commits in a commit graph.
+ * Commits are visited from both sides in decreasing generation order,
+ * following parents and merge parents alike. A commit reached from
+ * both sides is a common ancestor, and everything below it is marked
+ * stale. The walk stops as soon as only stale commits are left to
+ * visit, so it only reads as much history as the two branches have
+ * diverged over. The queue entries of commits that are not stale are
+ * counted as they are added, removed and marked, so checking for them
+ * does not scan the queue.
+ * @author Neman Faiz
+ */
+public class MergeBase {
+
+    /**Flag of a commit reached from the first commit. */
+    private static final int FROM_FIRST = 1;
+    /**Flag of a commit reached from the second commit. */
+    private static final int FROM_SECOND = 2;
+    /**Flag of a commit below a common ancestor. */
+    private static final int STALE = 4;
+    /**Flag of a commit already added to the result. */
+    private static final int RESULT = 8;
+
+    /**The commit graph being walked. */
+    private final CommitGraph graph;
+    /**Flags of the commits visited so far. */
+    private final HashMap<Integer, Integer> flags = new HashMap<>();
+    /**Map of commit to the number of its entries in the queue. */
+    private final HashMap<Integer, Integer> queued = new HashMap<>();
+    /**Number of queue entries whose commit is not stale. */
+    private int nonStale;
+
+    /**Creating a merge-base search.
+     * @param commitGraph the commit graph to walk. */
+    private MergeBase(CommitGraph commitGraph) {
+        this.graph = commitGraph;
+    }
+
+    /**Finding the best common ancestors of two commits, that is the
+     * common ancestors that are not ancestors of another one.
+     * @param commitGraph the commit graph
+     * @param first position of the first commit
+     * @param second position of the second commit
+     * @return the positions of the best common ancestors, highest
+     * generation first. A commit that is an ancestor of the other
+     * is its only best common ancestor. */
+    protected static List<Integer> find(CommitGraph commitGraph,
+                                        int first, int second) {
+        MergeBase search = new MergeBase(commitGraph);
+        List<Integer> common = search.paint(first, second);
+        return search.removeRedundant(common);
+    }
+
+    /**@param k position of a commit
+     * @return the flags of the commit. */
+    private int flagsOf(int k) {
+        return flags.getOrDefault(k, 0);
+    }
+
+    /**Walking down from both commits until every commit left to visit
+     * is below a common ancestor.
+     * @param first position of the first commit
+     * @param second position of the second commit
+     * @return the common ancestors found, highest generation first. */
+    private List<Integer> paint(int first, int second) {
+        List<Integer> result = new ArrayList<>();
+        if (first == second) {
+            result.add(first);
+            return result;
+        }
+
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(graph.generation(b),
+                    graph.generation(a));
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        mark(first, FROM_FIRST);
+        mark(second, FROM_SECOND);
+        push(queue, first);
+        push(queue, second);
+
+        while (nonStale > 0) {
+            int k = pop(queue);
+            int flag = flagsOf(k) & (FROM_FIRST | FROM_SECOND | STALE);
+            if (flag == (FROM_FIRST | FROM_SECOND)) {
+                if ((flagsOf(k) & RESULT) == 0) {
+                    mark(k, RESULT);
+                    result.add(k);
+                }
+                flag |= STALE;
+            }
+            for (int parent : new int[] {graph.parent(k),
+                                         graph.mergeParent(k)}) {
+                if (parent == CommitGraph.NONE
+                        || (flagsOf(parent) & flag) == flag) {
+                    continue;
+                }
+                mark(parent, flag);
+                push(queue, parent);
+            }
+        }
+        return result;
+    }
+
+    /**Adding flags to a commit. Entries of the commit already in the
+     * queue stop being counted once it turns stale.
+     * @param k position of the commit
+     * @param flag the flags to add. */
+    private void mark(int k, int flag) {
+        int old = flagsOf(k);
+        if ((old & STALE) == 0 && (flag & STALE) != 0) {
+            nonStale -= queued.getOrDefault(k, 0);
+        }
+        flags.put(k, old | flag);
+    }
+
+    /**Adding a commit to the queue.
+     * @param queue the commits left to visit
+     * @param k position of the commit. */
+    private void push(PriorityQueue<Integer> queue, int k) {
+        queue.add(k);
+        queued.merge(k, 1, Integer::sum);
+        if ((flagsOf(k) & STALE) == 0) {
+            nonStale += 1;
+        }
+    }
+
+    /**Taking the highest commit off the queue.
+     * @param queue the commits left to visit
+     * @return position of the commit. */
+    private int pop(PriorityQueue<Integer> queue) {
+        int k = queue.poll();
+        queued.merge(k, -1, Integer::sum);
+        if ((flagsOf(k) & STALE) == 0) {
+            nonStale -= 1;
+        }
+        return k;
+    }
+
+    /**Removing the common ancestors that are ancestors of another one.
+     * @param common the common ancestors, highest generation first
+     * @return the best common ancestors. */
+    private List<Integer> removeRedundant(List<Integer> common) {
+        if (common.size() <= 1) {
+            return common;
+        }
+        List<Integer> best = new ArrayList<>();
+        for (int candidate : common) {
+            boolean redundant = false;
+            for (int other : common) {
+                if (other != candidate && isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                best.add(candidate);
+            }
+        }
+        return best;
+    }
+
+    /**Checking ancestry, without going below the generation of the
+     * possible ancestor.
+     * @param ancestor position of the possible ancestor
+     * @param descendant position of the possible descendant
+     * @return true if ANCESTOR is reachable from DESCENDANT. */
+    private boolean isAncestor(int ancestor, int descendant) {
+        int cutoff = graph.generation(ancestor);
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        while (!stack.isEmpty()) {
+            int k = stack.pop();
+            if (k == ancestor) {
+                return true;
+            }
+            if (!seen.add(k) || graph.generation(k) <= cutoff) {
+                continue;
+            }
+            for (int parent : new int[] {graph.parent(k),
+                                         graph.mergeParent(k)}) {
+                if (parent != CommitGraph.NONE) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,499 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Represents the commit message index of a repository.
+ * A log file holds the id, time stamp and message of every commit, in
+ * the order they were made, after a count of its records. Strings are
+ * written as their length and UTF-8 bytes, so messages of any length
+ * fit. The log is all global-log prints, so global-log streams it
+ * instead of reading commits. Next to it, a bucket file keys every
+ * commit by the SHA-1 of its message and of every word of it. The file
+ * starts with a table of slots picked by the key; each slot holds the
+ * offset of the last posting for its keys, and every posting holds the
+ * key, the id of a commit and the offset of the posting before it in
+ * the slot. An exact search follows one slot, a word search one slot
+ * per word, and a substring search reads the log, so none of them reads
+ * a commit. The slots are doubled from the log once they hold MAX_LOAD
+ * postings each on average.
+ *
+ * Every commit is added to the index before it is written, so the
+ * index is only built again from the commits when its header is
+ * missing or corrupt, or its count differs from the number of commits
+ * the commit graph holds.
+ * @author Neman Faiz
+ */
+public class MessageIndex {
+
+    /**Magic number at the start of the log. */
+    private static final int MAGIC = 0x474d5347;
+    /**Magic number at the start of the bucket file. */
+    private static final int BUCKET_MAGIC = 0x474d4258;
+    /**Version of the format written by this class. */
+    private static final int VERSION = 4;
+    /**Size of the log header: magic, version and record count. */
+    private static final int HEADER = 12;
+    /**Size of the bucket file header: magic, version, slot count and
+     * posting count. */
+    private static final int BUCKET_HEADER = 16;
+    /**Size of a posting: key, commit id and offset of the posting
+     * before it in its slot. */
+    private static final int POSTING = 8 + Utils.UID_BYTES + 8;
+    /**Fewest slots of the bucket file. */
+    private static final int MIN_SLOTS = 1 << 10;
+    /**Largest average number of postings per slot. */
+    private static final int MAX_LOAD = 4;
+    /**First character of the key of a word, which no message key
+     * starts with. */
+    private static final String WORD = "\0";
+
+    /**Directory of the index. */
+    private final File dir;
+    /**The log file. */
+    private final File log;
+    /**The bucket file. */
+    private final File buckets;
+
+    /**Creating a message index.
+     * @param indexDir directory of the index. */
+    private MessageIndex(File indexDir) {
+        this.dir = indexDir;
+        this.log = Utils.join(indexDir, "log");
+        this.buckets = Utils.join(indexDir, "buckets");
+    }
+
+    /**Opening the message index of a repository, building it from the
+     * commits if it is missing, corrupt or out of date.
+     * @param indexDir directory of the index
+     * @param commitDir directory of commit objects
+     * @param objects object store of the repository
+     * @param commits number of commits in the repository
+     * @return the message index. */
+    protected static MessageIndex open(File indexDir, File commitDir,
+                                       ObjectStore objects, int commits)
+            throws IOException {
+        MessageIndex index = new MessageIndex(indexDir);
+        if (index.count() != commits) {
+            index.rebuild(commitDir, objects);
+        } else if (index.slots() < 0) {
+            index.rebuildBuckets(MIN_SLOTS);
+        }
+        return index;
+    }
+
+    /**@return the number of commits in the log, or -1 if there is no
+     * readable log. */
+    private int count() {
+        if (!log.isFile() || log.length() < HEADER) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(log.toPath()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readInt();
+        } catch (IOException excp) {
+            return -1;
+        }
+    }
+
+    /**@return the number of slots of the bucket file, or -1 if there is
+     * no bucket file whose length fits its header. */
+    private int slots() {
+        if (!buckets.isFile() || buckets.length() < BUCKET_HEADER) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(buckets.toPath()))) {
+            if (in.readInt() != BUCKET_MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            int slots = in.readInt();
+            int postings = in.readInt();
+            if (slots <= 0 || buckets.length() != BUCKET_HEADER
+                    + 8L * slots + (long) postings * POSTING) {
+                return -1;
+            }
+            return slots;
+        } catch (IOException excp) {
+            return -1;
+        }
+    }
+
+    /**Adding a commit to the index. The record is appended whole and
+     * the count is only bumped once its postings are in; if any of it
+     * fails, the log, the slots and the bucket file are put back as
+     * they were, so neither holds part of a commit.
+     * @param commit the commit, with its id made. */
+    protected void add(Commit commit) throws IOException {
+        String message = commit.getMessage();
+        byte[] id = Utils.fromHex(commit.getCommitId());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.write(id);
+        writeString(out, commit.getTimeStamp());
+        writeString(out, message);
+
+        int records = count();
+        int slots = slots();
+        if (records < 0 || slots < 0) {
+            throw Utils.error("Corrupt message index.");
+        }
+        Set<String> keys = keys(message);
+        int postings;
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw");
+             RandomAccessFile table = new RandomAccessFile(buckets, "rw")) {
+            long end = raf.length();
+            long tableEnd = table.length();
+            table.seek(12);
+            postings = table.readInt();
+            HashMap<Long, Long> oldHeads = new HashMap<>();
+            try {
+                raf.seek(end);
+                raf.write(record.toByteArray());
+                for (String key : keys) {
+                    long hash = hash(key);
+                    long slot = slotAt(hash, slots);
+                    table.seek(slot);
+                    long previous = table.readLong();
+                    oldHeads.putIfAbsent(slot, previous);
+                    long at = table.length();
+                    table.seek(at);
+                    table.writeLong(hash);
+                    table.write(id);
+                    table.writeLong(previous);
+                    table.seek(slot);
+                    table.writeLong(at);
+                }
+                table.seek(12);
+                table.writeInt(postings + keys.size());
+                raf.seek(8);
+                raf.writeInt(records + 1);
+            } catch (IOException | RuntimeException excp) {
+                for (Map.Entry<Long, Long> head : oldHeads.entrySet()) {
+                    table.seek(head.getKey());
+                    table.writeLong(head.getValue());
+                }
+                table.seek(12);
+                table.writeInt(postings);
+                table.setLength(tableEnd);
+                raf.setLength(end);
+                throw excp;
+            }
+        }
+        if (postings + keys.size() > (long) MAX_LOAD * slots) {
+            rebuildBuckets(slots * 2);
+        }
+    }
+
+    /**Writing the index from scratch out of every commit.
+     * @param commitDir directory of commit objects
+     * @param objects object store of the repository. */
+    private void rebuild(File commitDir, ObjectStore objects)
+            throws IOException {
+        if (dir.isDirectory()) {
+            for (File file : Objects.requireNonNull(dir.listFiles())) {
+                file.delete();
+            }
+        } else {
+            dir.mkdir();
+        }
+
+        LinkedHashMap<String, Commit> commits = new LinkedHashMap<>();
+        File[] files = commitDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                commits.put(file.getName(), Commit.read(file, objects));
+            }
+        }
+        List<Commit> order = new ArrayList<>(commits.values());
+        order.sort((a, b) -> Long.compare(a.getTime(), b.getTime()));
+
+        long postings = 0;
+        File temp = File.createTempFile("log", ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(order.size());
+                for (Commit commit : order) {
+                    out.write(Utils.fromHex(commit.getCommitId()));
+                    writeString(out, commit.getTimeStamp());
+                    writeString(out, commit.getMessage());
+                    postings += keys(commit.getMessage()).size();
+                }
+            }
+            if (!temp.renameTo(log)) {
+                throw Utils.error("Could not write the message index.");
+            }
+        } finally {
+            temp.delete();
+        }
+        int slots = MIN_SLOTS;
+        while ((long) MAX_LOAD * slots < postings) {
+            slots *= 2;
+        }
+        rebuildBuckets(slots);
+    }
+
+    /**Writing the bucket file from scratch out of the log, doubling
+     * the slots until they are not overloaded.
+     * @param slots the number of slots to start from. */
+    private void rebuildBuckets(int slots) throws IOException {
+        while ((long) MAX_LOAD * slots < writeBuckets(slots)) {
+            slots *= 2;
+        }
+    }
+
+    /**Helper function to rebuildBuckets.
+     * @param slots the number of slots
+     * @return the number of postings written. */
+    private int writeBuckets(int slots) throws IOException {
+        long[] heads = new long[slots];
+        int postings = 0;
+        File temp = File.createTempFile("buckets", ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(temp.toPath())));
+                 DataInputStream in = openLog()) {
+                out.writeInt(BUCKET_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(slots);
+                out.writeInt(0);
+                for (int k = 0; k < slots; k += 1) {
+                    out.writeLong(0);
+                }
+                long at = BUCKET_HEADER + 8L * slots;
+                byte[] id = new byte[Utils.UID_BYTES];
+                for (int k = count(); k > 0 && readId(in, id); k -= 1) {
+                    skipString(in);
+                    for (String key : keys(readString(in))) {
+                        long hash = hash(key);
+                        int slot = (int) Long.remainderUnsigned(hash, slots);
+                        out.writeLong(hash);
+                        out.write(id);
+                        out.writeLong(heads[slot]);
+                        heads[slot] = at;
+                        at += POSTING;
+                        postings += 1;
+                    }
+                }
+            }
+            try (RandomAccessFile table = new RandomAccessFile(temp, "rw")) {
+                table.seek(12);
+                table.writeInt(postings);
+                ByteBuffer slotTable = ByteBuffer.allocate(8 * slots);
+                slotTable.asLongBuffer().put(heads);
+                table.write(slotTable.array());
+            }
+            Files.move(temp.toPath(), buckets.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+        return postings;
+    }
+
+    /**Finding the commits with a message.
+     * @param message the whole message
+     * @return the ids of the commits, oldest first. */
+    protected List<String> exact(String message) throws IOException {
+        return readBucket(message);
+    }
+
+    /**Finding the commits whose message has every one of some words,
+     * ignoring case.
+     * @param text the words
+     * @return the ids of the commits, oldest first. */
+    protected List<String> withWords(String text) throws IOException {
+        List<String> found = null;
+        for (String word : words(text)) {
+            List<String> ids = readBucket(WORD + word);
+            if (found == null) {
+                found = ids;
+            } else {
+                found.retainAll(new LinkedHashSet<>(ids));
+            }
+        }
+        return found == null ? new ArrayList<>() : found;
+    }
+
+    /**Finding the commits whose message contains some text.
+     * @param text the text
+     * @return the ids of the commits, oldest first. */
+    protected List<String> containing(String text) throws IOException {
+        List<String> found = new ArrayList<>();
+        try (DataInputStream in = openLog()) {
+            byte[] id = new byte[Utils.UID_BYTES];
+            while (readId(in, id)) {
+                skipString(in);
+                if (readString(in).contains(text)) {
+                    found.add(Utils.toHex(id));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**Writing the id, time stamp and message of every commit, oldest
+     * first, in the form of global-log. Records are read and written
+     * one at a time, so the memory used does not grow with the number
+     * of commits.
+     * @param out writer the log is written to. */
+    protected void writeLog(Writer out) throws IOException {
+        try (DataInputStream in = openLog()) {
+            byte[] id = new byte[Utils.UID_BYTES];
+            while (readId(in, id)) {
+                out.write("===\ncommit ");
+                out.write(Utils.toHex(id));
+                out.write("\nDate: ");
+                out.write(readString(in));
+                out.write('\n');
+                out.write(readString(in));
+                out.write("\n\n");
+            }
+        }
+    }
+
+    /**@return a stream reading the records of the log, past its
+     * header. */
+    private DataInputStream openLog() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(log.toPath()), Utils.STREAM_BUFFER_SIZE));
+        in.skipNBytes(HEADER);
+        return in;
+    }
+
+    /**Reading the id of the next record of the log.
+     * @param in stream reading the log
+     * @param id array the id is read into
+     * @return false if there are no more records. */
+    private static boolean readId(DataInputStream in, byte[] id)
+            throws IOException {
+        try {
+            in.readFully(id);
+            return true;
+        } catch (EOFException excp) {
+            return false;
+        }
+    }
+
+    /**Writing a string as its length and its UTF-8 bytes.
+     * @param out stream the string is written to
+     * @param text the string. */
+    private static void writeString(DataOutput out, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**Reading a string written by writeString.
+     * @param in stream the string is read from
+     * @return the string. */
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**Skipping a string written by writeString.
+     * @param in stream the string is read from. */
+    private static void skipString(DataInputStream in) throws IOException {
+        in.skipNBytes(in.readInt());
+    }
+
+    /**@param key a message, or WORD followed by a word
+     * @return the ids of the commits posted under KEY, oldest first. */
+    private List<String> readBucket(String key) throws IOException {
+        List<String> ids = new ArrayList<>();
+        int slots = slots();
+        if (slots < 0) {
+            return ids;
+        }
+        long hash = hash(key);
+        try (RandomAccessFile table = new RandomAccessFile(buckets, "r")) {
+            table.seek(slotAt(hash, slots));
+            long at = table.readLong();
+            byte[] id = new byte[Utils.UID_BYTES];
+            while (at != 0) {
+                table.seek(at);
+                long posted = table.readLong();
+                table.readFully(id);
+                at = table.readLong();
+                if (posted == hash) {
+                    ids.add(Utils.toHex(id));
+                }
+            }
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    /**@param key a message, or WORD followed by a word
+     * @return the key of KEY in the bucket file, the first eight bytes
+     * of its SHA-1. */
+    private static long hash(String key) {
+        return ByteBuffer.wrap(Utils.fromHex(Utils.sha1(key))).getLong();
+    }
+
+    /**@param hash the key of a posting
+     * @param slots the number of slots
+     * @return the position of the slot of HASH in the bucket file. */
+    private static long slotAt(long hash, int slots) {
+        return BUCKET_HEADER + 8 * Long.remainderUnsigned(hash, slots);
+    }
+
+    /**@param message a commit message
+     * @return the keys of every bucket a commit with MESSAGE is in. */
+    private static Set<String> keys(String message) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(message);
+        for (String word : words(message)) {
+            keys.add(WORD + word);
+        }
+        return keys;
+    }
+
+    /**@param text some text
+     * @return the distinct words of TEXT, in lower case. */
+    private static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT)
+                .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** Represents the SHA-1 id of an object as a 20-byte value.
+ * Ids held this way compare and hash on three primitive fields instead
+ * of 40 characters, and are only turned into hex where they are shown
+ * or used as a file name.
+ * @author Neman Faiz
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /**First eight bytes of the id. */
+    private final long high;
+    /**Next eight bytes of the id. */
+    private final long middle;
+    /**Last four bytes of the id. */
+    private final int low;
+
+    /**Creating an id.
+     * @param first first eight bytes
+     * @param second next eight bytes
+     * @param last last four bytes. */
+    private ObjectId(long first, long second, int last) {
+        this.high = first;
+        this.middle = second;
+        this.low = last;
+    }
+
+    /**@param id the Utils.UID_BYTES bytes of an id
+     * @return the id. */
+    protected static ObjectId fromBytes(byte[] id) {
+        return new ObjectId(readLong(id, 0), readLong(id, 8),
+                (int) readBits(id, 16, 4));
+    }
+
+    /**@param hex the hex form of an id
+     * @return the id. */
+    protected static ObjectId fromHex(String hex) {
+        return fromBytes(Utils.fromHex(hex));
+    }
+
+    /**Reading an id written by write.
+     * @param in stream the id is read from
+     * @return the id. */
+    protected static ObjectId read(DataInput in) throws IOException {
+        return new ObjectId(in.readLong(), in.readLong(), in.readInt());
+    }
+
+    /**Writing the bytes of this id.
+     * @param out stream the id is written to. */
+    protected void write(DataOutput out) throws IOException {
+        out.writeLong(high);
+        out.writeLong(middle);
+        out.writeInt(low);
+    }
+
+    /**@return the Utils.UID_BYTES bytes of this id. */
+    protected byte[] toBytes() {
+        byte[] id = new byte[Utils.UID_BYTES];
+        writeBits(id, 0, 8, high);
+        writeBits(id, 8, 8, middle);
+        writeBits(id, 16, 4, low);
+        return id;
+    }
+
+    /**@return the hex form of this id. */
+    protected String toHex() {
+        return Utils.toHex(toBytes());
+    }
+
+    /**@param k position of a hex digit, from 0 to Utils.UID_LENGTH - 1
+     * @return the value of the Kth hex digit of this id. */
+    protected int digit(int k) {
+        long word;
+        int shift;
+        if (k < 16) {
+            word = high;
+            shift = 60 - 4 * k;
+        } else if (k < 32) {
+            word = middle;
+            shift = 60 - 4 * (k - 16);
+        } else {
+            word = low;
+            shift = 28 - 4 * (k - 32);
+        }
+        return (int) (word >>> shift) & 0xf;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return high == id.high && middle == id.middle && low == id.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(high, other.high);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(middle, other.middle);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(low, other.low);
+        }
+        return cmp;
+    }
+
+    /**Comparing this id with one held in a buffer, without reading it
+     * into an id first.
+     * @param buffer a big-endian buffer
+     * @param start position of the Utils.UID_BYTES bytes of the id
+     * @return negative, zero or positive as this id is less than, equal
+     * to or greater than the one at START. */
+    protected int compareTo(ByteBuffer buffer, int start) {
+        int cmp = Long.compareUnsigned(high, buffer.getLong(start));
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(middle, buffer.getLong(start + 8));
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(low, buffer.getInt(start + 16));
+        }
+        return cmp;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    /**@param bytes an array of bytes
+     * @param start position of the first byte
+     * @return the eight bytes from START as a big-endian long. */
+    private static long readLong(byte[] bytes, int start) {
+        return readBits(bytes, start, 8);
+    }
+
+    /**@param bytes an array of bytes
+     * @param start position of the first byte
+     * @param count number of bytes
+     * @return the COUNT bytes from START as a big-endian number. */
+    private static long readBits(byte[] bytes, int start, int count) {
+        long value = 0;
+        for (int i = start; i < start + count; i += 1) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    /**Storing a big-endian number into an array of bytes.
+     * @param bytes the array
+     * @param start position of the first byte
+     * @param count number of bytes
+     * @param value the number. */
+    private static void writeBits(byte[] bytes, int start, int count,
+                                  long value) {
+        for (int i = start + count - 1; i >= start; i -= 1) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,787 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Represents the object database of a Gitlet repository.
+ * New objects are written loose, one file per object named by its
+ * SHA-1 id. The repack command folds loose objects and older packs
+ * into a single pack, so a large repository keeps a few files
+ * instead of one per blob. Reads look in the packs first and then
+ * fall back to the loose directory.
+ *
+ * Every object, loose and in packs alike, starts with TAG and a byte
+ * giving its encoding: STORED, DEFLATED for zlib, or CHUNKED for a
+ * manifest. Objects are always named by the SHA-1 id of their content.
+ * The level is taken from the GITLET_COMPRESSION environment variable,
+ * from 0, which stores new objects uncompressed, to 9, and defaults to
+ * the zlib default level. Objects written before TAG are read as they
+ * are; repack writes them again with TAG.
+ *
+ * Repack stores blobs as deltas where that is smaller. Blobs are
+ * sorted by the path they were committed under and then by size, and
+ * every blob is tried against the WINDOW blobs before it. A delta
+ * chain is never longer than MAX_DEPTH, and the bases read while
+ * rebuilding blobs from deltas are kept in a small cache, least
+ * recently used first out.
+ *
+ * Files of CHUNK_THRESHOLD bytes or more are cut into chunks by
+ * Chunker and every chunk is stored as an object of its own. The blob
+ * of such a file is a manifest listing its chunks, still named by the
+ * SHA-1 of the whole file, so adding an edited copy of a large file
+ * only writes the chunks that changed.
+ * @author Neman Faiz
+ */
+public class ObjectStore {
+
+    /**First bytes of every object, followed by its encoding. The first
+     * byte is never the start of a UTF-8 text file. */
+    private static final byte[] TAG = {(byte) 0xff, 'G', 'O', 2};
+    /**Length of TAG and the encoding byte after it. */
+    private static final int TAG_LENGTH = TAG.length + 1;
+    /**Encoding of an object stored as it is. */
+    private static final byte STORED = 0;
+    /**Encoding of a zlib-compressed object. */
+    private static final byte DEFLATED = 1;
+    /**Encoding of a blob stored as a manifest listing its chunks. */
+    private static final byte CHUNKED = 2;
+    /**Encoding of an object written before TAG, stored as it is. */
+    private static final byte RAW = -1;
+    /**Smallest file stored as chunks. */
+    private static final long CHUNK_THRESHOLD = 8L << 20;
+    /**Compression level of new objects. */
+    private static final int LEVEL = level(System.getenv("GITLET_COMPRESSION"));
+
+    /**Largest pack repack writes before starting a new one,
+     * so every pack can be mapped with a single buffer. */
+    private static final long MAX_PACK_SIZE = 1L << 30;
+    /**Number of earlier blobs a blob is tried against as delta base. */
+    private static final int WINDOW = 10;
+    /**Longest chain of deltas repack writes. */
+    private static final int MAX_DEPTH = 10;
+    /**Largest blob repack looks for a delta for. */
+    private static final int MAX_DELTA_SIZE = 16 << 20;
+    /**Largest total size of the delta bases kept in memory. */
+    private static final long MAX_BASE_BYTES = 32L << 20;
+
+    /**Directory of loose objects. */
+    private final File looseDir;
+    /**Directory of pack files. */
+    private final File packDir;
+    /**Packs of this store, opened when first needed. */
+    private List<Pack> packs;
+    /**Map of id to content of delta bases, least recently used first. */
+    private final LinkedHashMap<ObjectId, byte[]> bases =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /**Total size of the delta bases in BASES. */
+    private long baseBytes;
+
+    /**Creating an object store.
+     * @param looseObjects directory of loose objects
+     * @param packFiles directory of pack files. */
+    protected ObjectStore(File looseObjects, File packFiles) {
+        this.looseDir = looseObjects;
+        this.packDir = packFiles;
+    }
+
+    /**@return the packs of this store. */
+    private synchronized List<Pack> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".pack")) {
+                        String base = name.substring(0, name.length() - 5);
+                        File indexPath = Utils.join(packDir, base + ".idx");
+                        if (indexPath.exists()) {
+                            packs.add(new Pack(Utils.join(packDir, name),
+                                    indexPath));
+                        }
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**@param id SHA-1 id of an object, in hex
+     * @return true if the object is stored loose or packed. */
+    protected boolean contains(String id) {
+        return contains(ObjectId.fromHex(id));
+    }
+
+    /**@param id SHA-1 id of an object
+     * @return true if the object is stored loose or packed. */
+    protected boolean contains(ObjectId id) {
+        if (Utils.join(looseDir, id.toHex()).exists()) {
+            return true;
+        }
+        for (Pack pack : getPacks()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**@param id SHA-1 id of an object, in hex
+     * @return the number of bytes the object takes up in the store. */
+    protected long storedSize(String id) {
+        ObjectId key = ObjectId.fromHex(id);
+        for (Pack pack : getPacks()) {
+            int k = pack.indexOf(key);
+            if (k >= 0) {
+                return pack.sizeAt(k);
+            }
+        }
+        return Utils.join(looseDir, id).length();
+    }
+
+    /**Reading the content of an object.
+     * @param id SHA-1 id of the object, in hex
+     * @return the content of the object. */
+    protected byte[] read(String id) {
+        return read(ObjectId.fromHex(id));
+    }
+
+    /**Reading the content of an object.
+     * @param id SHA-1 id of the object
+     * @return the content of the object. */
+    protected byte[] read(ObjectId id) {
+        for (Pack pack : getPacks()) {
+            int k = pack.indexOf(id);
+            if (k >= 0) {
+                byte[] entry = pack.readAt(k);
+                if (pack.typeAt(k) == Pack.DELTA) {
+                    return applyDelta(entry);
+                }
+                return expand(entry);
+            }
+        }
+        return expand(Utils.readContents(Utils.join(looseDir, id.toHex())));
+    }
+
+    /**@param id SHA-1 id of an object
+     * @return the object as it is stored, or null if it is stored as a
+     * delta. */
+    private byte[] readStored(ObjectId id) {
+        for (Pack pack : getPacks()) {
+            int k = pack.indexOf(id);
+            if (k >= 0) {
+                return pack.typeAt(k) == Pack.DELTA ? null : pack.readAt(k);
+            }
+        }
+        return Utils.readContents(Utils.join(looseDir, id.toHex()));
+    }
+
+    /**@param stored an object as it is stored, not as a delta
+     * @return the content of the object, put together from its chunks
+     * if it is a manifest. */
+    private byte[] expand(byte[] stored) {
+        int start = manifestStart(stored);
+        if (start < 0) {
+            return decode(stored);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ObjectId chunk : chunkIds(stored, start)) {
+            out.writeBytes(read(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    /**@param stored an object as it is stored, not as a delta
+     * @return the position of the chunk count if STORED is a manifest,
+     * or -1. */
+    private static int manifestStart(byte[] stored) {
+        return encodingOf(stored) == CHUNKED ? TAG_LENGTH : -1;
+    }
+
+    /**@param bytes some bytes
+     * @param start position of a big-endian int in BYTES
+     * @return the int. */
+    private static int readInt(byte[] bytes, int start) {
+        return ((bytes[start] & 0xff) << 24)
+                | ((bytes[start + 1] & 0xff) << 16)
+                | ((bytes[start + 2] & 0xff) << 8)
+                | (bytes[start + 3] & 0xff);
+    }
+
+    /**@param manifest a manifest
+     * @param start position of the chunk count in MANIFEST
+     * @return the ids of the chunks, in order. */
+    private static List<ObjectId> chunkIds(byte[] manifest, int start) {
+        int count = readInt(manifest, start);
+        List<ObjectId> ids = new ArrayList<>(count);
+        for (int k = 0; k < count; k += 1) {
+            int offset = start + 4 + k * Utils.UID_BYTES;
+            ids.add(ObjectId.fromBytes(Arrays.copyOfRange(manifest, offset,
+                    offset + Utils.UID_BYTES)));
+        }
+        return ids;
+    }
+
+    /**Rebuilding an object from a delta entry of a pack.
+     * @param entry the entry: the id of the base and the delta
+     * @return the content of the object. */
+    private byte[] applyDelta(byte[] entry) {
+        ObjectId baseId = ObjectId.fromBytes(
+                Arrays.copyOf(entry, Utils.UID_BYTES));
+        byte[] delta = decode(Arrays.copyOfRange(entry, Utils.UID_BYTES,
+                entry.length));
+        return Delta.apply(readBase(baseId), delta);
+    }
+
+    /**Reading a delta base through the cache of bases.
+     * @param id SHA-1 id of the base
+     * @return the content of the base. */
+    private byte[] readBase(ObjectId id) {
+        synchronized (bases) {
+            byte[] content = bases.get(id);
+            if (content != null) {
+                return content;
+            }
+        }
+        byte[] content = read(id);
+        synchronized (bases) {
+            if (content.length <= MAX_BASE_BYTES / 4
+                    && bases.put(id, content) == null) {
+                baseBytes += content.length;
+                Iterator<byte[]> eldest = bases.values().iterator();
+                while (baseBytes > MAX_BASE_BYTES && eldest.hasNext()) {
+                    baseBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return content;
+    }
+
+    /**Writing the content of an object to a file, decompressing it on
+     * the way, so the object is never held in memory as a whole.
+     * @param id SHA-1 id of the object
+     * @param target the file, created or overwritten. */
+    protected void copyTo(String id, File target) throws IOException {
+        try (InputStream in = open(ObjectId.fromHex(id));
+             OutputStream out = Files.newOutputStream(target.toPath())) {
+            byte[] buffer = new byte[Utils.STREAM_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**@param id SHA-1 id of an object
+     * @return a stream over the uncompressed content of the object. */
+    private InputStream open(ObjectId id) throws IOException {
+        InputStream stored = null;
+        for (Pack pack : getPacks()) {
+            int k = pack.indexOf(id);
+            if (k >= 0 && pack.typeAt(k) == Pack.DELTA) {
+                return new ByteArrayInputStream(read(id));
+            } else if (k >= 0) {
+                stored = pack.openAt(k);
+                break;
+            }
+        }
+        if (stored == null) {
+            stored = Files.newInputStream(
+                    Utils.join(looseDir, id.toHex()).toPath());
+        }
+        InputStream in = new BufferedInputStream(stored,
+                Utils.STREAM_BUFFER_SIZE);
+        in.mark(TAG_LENGTH);
+        byte encoding = encodingOf(in.readNBytes(TAG_LENGTH));
+        if (encoding == STORED) {
+            return in;
+        }
+        if (encoding == CHUNKED) {
+            byte[] manifest;
+            try (in) {
+                manifest = in.readAllBytes();
+            }
+            return openChunks(chunkIds(manifest, 0));
+        }
+        if (encoding == DEFLATED) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater,
+                    Utils.STREAM_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        in.reset();
+        return in;
+    }
+
+    /**@param chunks ids of the chunks of a blob
+     * @return a stream over the chunks one after the other, each opened
+     * when the one before it is used up. */
+    private InputStream openChunks(List<ObjectId> chunks) {
+        Iterator<ObjectId> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return open(next.next());
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            }
+        });
+    }
+
+    /**Writing an object loose unless it is already stored.
+     * @param id SHA-1 id of the object
+     * @param content content of the object. */
+    protected void write(String id, byte[] content) throws IOException {
+        if (!contains(id)) {
+            writeStored(id, encode(content));
+        }
+    }
+
+    /**Writing an object loose as it is to be stored.
+     * @param id SHA-1 id of the object
+     * @param stored the object as it is to be stored. */
+    private void writeStored(String id, byte[] stored) throws IOException {
+        File temp = File.createTempFile("object", ".tmp", looseDir);
+        try {
+            Utils.writeContents(temp, (Object) stored);
+            install(temp, id);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**Writing the content of a file as an object unless it is already
+     * stored. The file is hashed and compressed while it is copied, so
+     * it is read once and never held in memory as a whole.
+     * @param source the file
+     * @return the SHA-1 id of the object. */
+    protected String writeFile(File source) throws IOException {
+        if (source.length() >= CHUNK_THRESHOLD) {
+            return writeChunked(source);
+        }
+        File temp = File.createTempFile("object", ".tmp", looseDir);
+        try {
+            String id;
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                out.write(TAG);
+                if (LEVEL == 0) {
+                    out.write(STORED);
+                    id = Utils.copyHashed(source, out);
+                } else {
+                    out.write(DEFLATED);
+                    Deflater deflater = new Deflater(LEVEL);
+                    try (DeflaterOutputStream deflated =
+                                 new DeflaterOutputStream(out, deflater,
+                                         Utils.STREAM_BUFFER_SIZE)) {
+                        id = Utils.copyHashed(source, deflated);
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            }
+            if (!contains(id)) {
+                install(temp, id);
+            }
+            return id;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**Writing a large file as chunks and a manifest. The file is read
+     * once, and only a few chunks are held in memory at a time.
+     * @param source the file
+     * @return the SHA-1 id of the whole file. */
+    private String writeChunked(File source) throws IOException {
+        MessageDigest whole = Utils.newSha1Digest();
+        ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        int count = 0;
+        byte[] buffer = new byte[2 * Chunker.MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            while (true) {
+                if (!eof && end - start < Chunker.MAX_SIZE) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    end += in.readNBytes(buffer, end, buffer.length - end);
+                    eof = end < buffer.length;
+                }
+                if (start == end) {
+                    break;
+                }
+                int length = Chunker.cut(buffer, start, end - start);
+                whole.update(buffer, start, length);
+                byte[] chunk = Arrays.copyOfRange(buffer, start,
+                        start + length);
+                String chunkId = Utils.sha1((Object) chunk);
+                write(chunkId, chunk);
+                ids.writeBytes(Utils.fromHex(chunkId));
+                count += 1;
+                start += length;
+            }
+        }
+
+        String id = Utils.toHex(whole.digest());
+        if (!contains(id)) {
+            ByteArrayOutputStream list =
+                    new ByteArrayOutputStream(ids.size() + 4);
+            list.write(count >>> 24);
+            list.write(count >>> 16);
+            list.write(count >>> 8);
+            list.write(count);
+            ids.writeTo(list);
+            writeStored(id, manifest(list.toByteArray()));
+        }
+        return id;
+    }
+
+    /**@param list the chunk count and the ids of the chunks
+     * @return the manifest of LIST as it is to be stored. */
+    private static byte[] manifest(byte[] list) {
+        byte[] stored = new byte[TAG_LENGTH + list.length];
+        System.arraycopy(TAG, 0, stored, 0, TAG.length);
+        stored[TAG.length] = CHUNKED;
+        System.arraycopy(list, 0, stored, TAG_LENGTH, list.length);
+        return stored;
+    }
+
+    /**Renaming a complete object into the loose directory, so a reader
+     * never sees an object that is only partly written.
+     * @param temp the file holding the object
+     * @param id SHA-1 id of the object. */
+    private void install(File temp, String id) throws IOException {
+        Files.move(temp.toPath(), Utils.join(looseDir, id).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**Removing the loose copy of an object.
+     * @param id SHA-1 id of the object. */
+    protected void deleteLoose(String id) {
+        Utils.join(looseDir, id).delete();
+    }
+
+    /**Folding every loose object and every existing pack into new packs,
+     * storing blobs as deltas where that is smaller. Every object is
+     * compressed on the way. Loose objects and old packs are removed
+     * only after the new packs are complete.
+     * @param paths map of blob id to a path it was committed under. */
+    protected void repack(Map<String, String> paths) throws IOException {
+        if (!packDir.exists()) {
+            packDir.mkdir();
+        }
+
+        TreeMap<String, File> loose = new TreeMap<>();
+        List<String> names = Utils.plainFilenamesIn(looseDir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == Utils.UID_LENGTH) {
+                    loose.put(name, Utils.join(looseDir, name));
+                }
+            }
+        }
+        List<Pack> oldPacks = getPacks();
+        if (loose.isEmpty() && oldPacks.size() <= 1) {
+            return;
+        }
+
+        HashSet<String> seen = new HashSet<>();
+        List<Candidate> order = new ArrayList<>();
+        for (Pack pack : oldPacks) {
+            for (int k = 0; k < pack.size(); k += 1) {
+                String id = pack.idAt(k);
+                if (seen.add(id)) {
+                    order.add(new Candidate(id, paths.get(id),
+                            pack.sizeAt(k)));
+                }
+            }
+        }
+        for (Map.Entry<String, File> entry : loose.entrySet()) {
+            if (seen.add(entry.getKey())) {
+                order.add(new Candidate(entry.getKey(),
+                        paths.get(entry.getKey()), entry.getValue().length()));
+            }
+        }
+        order.sort(Comparator.comparing((Candidate c) -> c.path,
+                        Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(c -> -c.size)
+                .thenComparing(c -> c.id));
+
+        List<Pack> newPacks = new ArrayList<>();
+        Pack.Writer writer = new Pack.Writer(packDir);
+        try {
+            ArrayDeque<Candidate> window = new ArrayDeque<>();
+            for (Candidate candidate : order) {
+                byte[] stored = readStored(ObjectId.fromHex(candidate.id));
+                if (stored != null && manifestStart(stored) >= 0) {
+                    writer = addToPack(writer, newPacks, candidate.id,
+                            Pack.BLOB, stored);
+                    continue;
+                }
+                byte[] content = stored == null
+                        ? read(candidate.id) : decode(stored);
+                byte[] entry = encode(content);
+                byte type = Pack.BLOB;
+                if (candidate.path != null
+                        && content.length <= MAX_DELTA_SIZE) {
+                    for (Candidate base : window) {
+                        if (base.depth >= MAX_DEPTH
+                                || !similarSize(base.content, content)) {
+                            continue;
+                        }
+                        byte[] delta = deltaEntry(base, content);
+                        if (delta.length < entry.length) {
+                            entry = delta;
+                            type = Pack.DELTA;
+                            candidate.depth = base.depth + 1;
+                        }
+                    }
+                    candidate.content = content;
+                    window.addLast(candidate);
+                    if (window.size() > WINDOW) {
+                        window.removeFirst().content = null;
+                    }
+                }
+                writer = addToPack(writer, newPacks, candidate.id,
+                        type, entry);
+            }
+            newPacks.add(writer.finish());
+        } catch (IOException | RuntimeException excp) {
+            writer.abort();
+            throw excp;
+        }
+
+        synchronized (this) {
+            packs = newPacks;
+        }
+        for (Pack pack : oldPacks) {
+            if (!newPacks.stream().anyMatch(p ->
+                    p.getPackFile().equals(pack.getPackFile()))) {
+                pack.getPackFile().delete();
+                pack.getIndexFile().delete();
+            }
+        }
+        for (File file : loose.values()) {
+            file.delete();
+        }
+    }
+
+    /**Helper function to repack.
+     * Appending an object to the pack being written, finishing it first
+     * if the object would make it larger than MAX_PACK_SIZE.
+     * @param writer the pack being written
+     * @param finished the packs finished so far
+     * @param id SHA-1 id of the object
+     * @param type type byte of the entry
+     * @param entry the entry as it is to be stored
+     * @return the pack the object was written to. */
+    private Pack.Writer addToPack(Pack.Writer writer, List<Pack> finished,
+                                  String id, byte type, byte[] entry)
+            throws IOException {
+        if (writer.count() > 0
+                && writer.size() + Pack.ENTRY_HEADER + entry.length
+                > MAX_PACK_SIZE) {
+            finished.add(writer.finish());
+            writer = new Pack.Writer(packDir);
+        }
+        writer.add(type, id, entry);
+        return writer;
+    }
+
+    /**Helper function to repack.
+     * @param base a blob content could be stored as a delta against
+     * @param content the content of a blob
+     * @return the delta entry of CONTENT against BASE. */
+    private static byte[] deltaEntry(Candidate base, byte[] content) {
+        byte[] delta = encode(Delta.create(base.content, content));
+        byte[] entry = new byte[Utils.UID_BYTES + delta.length];
+        System.arraycopy(Utils.fromHex(base.id), 0, entry, 0,
+                Utils.UID_BYTES);
+        System.arraycopy(delta, 0, entry, Utils.UID_BYTES, delta.length);
+        return entry;
+    }
+
+    /**Helper function to repack.
+     * @param base content of a possible delta base
+     * @param content content of a blob
+     * @return true if the sizes are close enough for a delta between
+     * them to be worth trying. */
+    private static boolean similarSize(byte[] base, byte[] content) {
+        return Math.min(base.length, content.length) * 2L
+                >= Math.max(base.length, content.length);
+    }
+
+    /**@param value the configured compression level, or null
+     * @return the compression level to use. */
+    private static int level(String value) {
+        if (value != null && value.trim().matches("[0-9]")) {
+            return Integer.parseInt(value.trim());
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**Deciding how an object is encoded, for every read path.
+     * @param stored an object as it is stored, or at least its first
+     * TAG_LENGTH bytes
+     * @return STORED, DEFLATED or CHUNKED if STORED starts with TAG and
+     * one of them, and RAW otherwise. */
+    private static byte encodingOf(byte[] stored) {
+        if (stored.length >= TAG_LENGTH && startsWith(stored, TAG)) {
+            byte encoding = stored[TAG.length];
+            if (encoding == STORED || encoding == DEFLATED
+                    || encoding == CHUNKED) {
+                return encoding;
+            }
+        }
+        return RAW;
+    }
+
+    /**@param stored an object as it is stored
+     * @param header the first bytes of an encoding
+     * @return true if STORED starts with HEADER. */
+    private static boolean startsWith(byte[] stored, byte[] header) {
+        return stored.length >= header.length
+                && Arrays.equals(stored, 0, header.length,
+                header, 0, header.length);
+    }
+
+    /**Compressing the content of an object at the configured level.
+     * @param content the content
+     * @return the object as it is to be stored. */
+    protected static byte[] encode(byte[] content) {
+        if (LEVEL == 0) {
+            byte[] stored = new byte[TAG_LENGTH + content.length];
+            System.arraycopy(TAG, 0, stored, 0, TAG.length);
+            stored[TAG.length] = STORED;
+            System.arraycopy(content, 0, stored, TAG_LENGTH, content.length);
+            return stored;
+        }
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out =
+                    new ByteArrayOutputStream(content.length / 2 + 64);
+            out.write(TAG, 0, TAG.length);
+            out.write(DEFLATED);
+            byte[] buffer = new byte[Utils.STREAM_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**Decompressing an object as it is stored, not as a manifest. An
+     * object written before TAG is returned as it is.
+     * @param stored the object as it is stored
+     * @return the content of the object. */
+    protected static byte[] decode(byte[] stored) {
+        byte encoding = encodingOf(stored);
+        if (encoding == STORED) {
+            return Arrays.copyOfRange(stored, TAG_LENGTH, stored.length);
+        }
+        if (encoding == DEFLATED) {
+            byte[] content = inflate(stored, TAG_LENGTH);
+            if (content == null) {
+                throw Utils.error("Object is corrupt.");
+            }
+            return content;
+        }
+        return stored;
+    }
+
+    /**@param stored an object as it is stored
+     * @param start position of the zlib data in STORED
+     * @return the inflated data, or null if it is not valid zlib data. */
+    private static byte[] inflate(byte[] stored, int start) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, start, stored.length - start);
+            ByteArrayOutputStream out =
+                    new ByteArrayOutputStream(stored.length * 3);
+            byte[] buffer = new byte[Utils.STREAM_BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && !inflater.finished()
+                        && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    return null;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException excp) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**Represents an object being ordered and written by repack. */
+    private static class Candidate {
+        /**SHA-1 id of the object. */
+        private final String id;
+        /**A path the object was committed under, or null. */
+        private final String path;
+        /**Stored size of the object, used to order objects. */
+        private final long size;
+        /**Length of the delta chain the object is stored with. */
+        private int depth;
+        /**Content of the object while it is in the window. */
+        private byte[] content;
+
+        /**Creating a candidate.
+         * @param objectId SHA-1 id of the object
+         * @param objectPath a path of the object, or null
+         * @param storedSize stored size of the object. */
+        Candidate(String objectId, String objectPath, long storedSize) {
+            this.id = objectId;
+            this.path = objectPath;
+            this.size = storedSize;
+        }
+    }
+}
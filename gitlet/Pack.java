@@ -0,0 +1,387 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Represents a pack file and its index.
+ * A pack file is an append-only sequence of objects. Each entry is a
+ * type byte, a length and the object as ObjectStore stores it, or for
+ * a delta entry the id of its base object followed by the compressed
+ * delta from the base.
+ * The index that goes with it has a fanout table on the first byte of
+ * the object id, the sorted object ids and the offset of every entry
+ * in the pack. Both files are read through memory-mapped buffers, so
+ * looking an object up is a binary search without any extra syscalls.
+ * @author Neman Faiz
+ */
+public class Pack {
+
+    /**Magic number at the start of every pack file. */
+    private static final int PACK_MAGIC = 0x4750434b;
+    /**Magic number at the start of every pack index file. */
+    private static final int INDEX_MAGIC = 0x47494458;
+    /**Version of the pack and index format written by this class. */
+    private static final int VERSION = 2;
+    /**Version of packs written before delta entries. */
+    private static final int FULL_VERSION = 1;
+    /**Size of the pack header: magic, version and entry count. */
+    private static final int PACK_HEADER = 12;
+    /**Size of the index header: magic, version and entry count. */
+    private static final int INDEX_HEADER = 12;
+    /**Number of entries in the fanout table. */
+    private static final int FANOUT = 256;
+    /**Size of an entry header in the pack: type byte and length. */
+    protected static final int ENTRY_HEADER = 5;
+    /**Number of bytes in a binary object id. */
+    protected static final int ID_BYTES = Utils.UID_BYTES;
+    /**Type byte of a blob entry. */
+    protected static final byte BLOB = 1;
+    /**Type byte of a delta entry. */
+    protected static final byte DELTA = 2;
+
+    /**Pack file this object reads from. */
+    private final File packFile;
+    /**Index file this object reads from. */
+    private final File indexFile;
+    /**Mapped content of the pack file. */
+    private final MappedByteBuffer pack;
+    /**Mapped content of the index file. */
+    private final MappedByteBuffer index;
+    /**Number of objects in this pack. */
+    private final int count;
+    /**Position of the sorted id table in the index. */
+    private final int idsStart;
+    /**Position of the offset table in the index. */
+    private final int offsetsStart;
+
+    /**Opening a pack and its index.
+     * @param packPath the pack file
+     * @param indexPath the index file of the pack. */
+    protected Pack(File packPath, File indexPath) {
+        this.packFile = packPath;
+        this.indexFile = indexPath;
+        this.pack = map(packPath);
+        this.index = map(indexPath);
+
+        if (pack.getInt(0) != PACK_MAGIC || index.getInt(0) != INDEX_MAGIC
+                || !isVersion(pack.getInt(4)) || !isVersion(index.getInt(4))) {
+            throw Utils.error("Corrupt pack %s.", packPath.getName());
+        }
+        this.count = index.getInt(8);
+        this.idsStart = INDEX_HEADER + FANOUT * 4;
+        this.offsetsStart = idsStart + count * ID_BYTES;
+    }
+
+    /**@param version version number of a pack or index file
+     * @return true if this class can read it. */
+    private static boolean isVersion(int version) {
+        return version == VERSION || version == FULL_VERSION;
+    }
+
+    /**Memory-mapping a whole file for reading.
+     * @param file the file to map
+     * @return the read-only mapping of the file. */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**@return the pack file. */
+    protected File getPackFile() {
+        return packFile;
+    }
+
+    /**@return the index file of this pack. */
+    protected File getIndexFile() {
+        return indexFile;
+    }
+
+    /**@return the number of objects in this pack. */
+    protected int size() {
+        return count;
+    }
+
+    /**Finding the position of an object in the sorted id table.
+     * @param id id of the object
+     * @return the position of the id, or -1 if it is not in this pack. */
+    private int position(ObjectId id) {
+        int first = id.digit(0) << 4 | id.digit(1);
+        int lo = first == 0 ? 0 : index.getInt(INDEX_HEADER + (first - 1) * 4);
+        int hi = index.getInt(INDEX_HEADER + first * 4) - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = id.compareTo(index, idsStart + mid * ID_BYTES);
+            if (cmp > 0) {
+                lo = mid + 1;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**@param k position in the id table
+     * @return the hex id of the object at K. */
+    protected String idAt(int k) {
+        byte[] id = new byte[ID_BYTES];
+        ByteBuffer view = index.duplicate();
+        view.position(idsStart + k * ID_BYTES);
+        view.get(id);
+        return Utils.toHex(id);
+    }
+
+    /**@param id id of an object
+     * @return true if the object is in this pack. */
+    protected boolean contains(ObjectId id) {
+        return position(id) >= 0;
+    }
+
+    /**@param id id of an object
+     * @return its position in the id table, or -1 if it is not here. */
+    protected int indexOf(ObjectId id) {
+        return position(id);
+    }
+
+    /**@param k position in the id table
+     * @return the type byte of the entry at K. */
+    protected byte typeAt(int k) {
+        return pack.get((int) index.getLong(offsetsStart + k * 8));
+    }
+
+    /**@param k position in the id table
+     * @return the stored size of the entry at K. */
+    protected int sizeAt(int k) {
+        return pack.getInt((int) index.getLong(offsetsStart + k * 8) + 1);
+    }
+
+    /**Opening the entry at a position of the id table for streaming.
+     * @param k position in the id table
+     * @return a stream over the entry as it is stored. */
+    protected InputStream openAt(int k) {
+        int offset = (int) index.getLong(offsetsStart + k * 8);
+        ByteBuffer view = pack.duplicate();
+        view.position(offset + ENTRY_HEADER);
+        view.limit(offset + ENTRY_HEADER + pack.getInt(offset + 1));
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) {
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, view.remaining());
+                view.get(bytes, off, n);
+                return n;
+            }
+        };
+    }
+
+    /**Reading the entry at a position of the id table.
+     * @param k position in the id table
+     * @return the entry as it is stored. */
+    protected byte[] readAt(int k) {
+        int offset = (int) index.getLong(offsetsStart + k * 8);
+        int length = pack.getInt(offset + 1);
+        byte[] content = new byte[length];
+        ByteBuffer view = pack.duplicate();
+        view.position(offset + ENTRY_HEADER);
+        view.get(content);
+        return content;
+    }
+
+    /**Represents a pack that is being written.
+     * Entries are appended to the pack file as they are given and
+     * the index is written, sorted, when the pack is finished. */
+    protected static class Writer {
+        /**Temporary file the pack is written to. */
+        private final File tempPack;
+        /**Directory the finished pack is moved to. */
+        private final File dir;
+        /**Stream on the pack file. */
+        private final DataOutputStream out;
+        /**Ids and offsets of the entries written so far. */
+        private final List<Entry> entries = new ArrayList<>();
+        /**Number of bytes written to the pack so far. */
+        private long written;
+
+        /**Starting a new pack in a directory.
+         * @param packDir the directory where packs are kept. */
+        protected Writer(File packDir) throws IOException {
+            this.dir = packDir;
+            this.tempPack = File.createTempFile("tmp-", ".pack", packDir);
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempPack.toPath())));
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            written = PACK_HEADER;
+        }
+
+        /**@return the number of bytes written to the pack so far. */
+        protected long size() {
+            return written;
+        }
+
+        /**@return the number of entries written to the pack so far. */
+        protected int count() {
+            return entries.size();
+        }
+
+        /**Appending an object to the pack.
+         * @param type type byte of the object
+         * @param id hex id of the object
+         * @param content content of the object. */
+        protected void add(byte type, String id, byte[] content)
+                throws IOException {
+            entries.add(new Entry(Utils.fromHex(id), written));
+            out.writeByte(type);
+            out.writeInt(content.length);
+            out.write(content);
+            written += ENTRY_HEADER + content.length;
+        }
+
+        /**Finishing the pack: writing its entry count and its index,
+         * then moving both into place under their final name, the pack
+         * first. A pack without an index is never read, so a reader
+         * never meets an index whose pack is missing or different. If
+         * a pack with the same name and its index are already there,
+         * neither is touched.
+         * @return the finished pack. */
+        protected Pack finish() throws IOException {
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(tempPack, "rw")) {
+                raf.seek(8);
+                raf.writeInt(entries.size());
+            }
+
+            Collections.sort(entries);
+            String name = "pack-" + Utils.sha1(entryIds());
+            File packPath = Utils.join(dir, name + ".pack");
+            File indexPath = Utils.join(dir, name + ".idx");
+            if (packPath.exists() && indexPath.exists()) {
+                tempPack.delete();
+                return new Pack(packPath, indexPath);
+            }
+            File tempIndex = writeIndex();
+            try {
+                Files.move(tempPack.toPath(), packPath.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                try {
+                    Files.move(tempIndex.toPath(), indexPath.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException excp) {
+                    packPath.delete();
+                    throw excp;
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Could not write pack %s.", name);
+            } finally {
+                tempIndex.delete();
+            }
+            return new Pack(packPath, indexPath);
+        }
+
+        /**Abandoning the pack and removing its temporary file. */
+        protected void abort() {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                return;
+            } finally {
+                tempPack.delete();
+            }
+        }
+
+        /**@return all the sorted ids of this pack, back to back. */
+        private byte[] entryIds() {
+            byte[] ids = new byte[entries.size() * ID_BYTES];
+            for (int k = 0; k < entries.size(); k += 1) {
+                System.arraycopy(entries.get(k).id, 0, ids,
+                        k * ID_BYTES, ID_BYTES);
+            }
+            return ids;
+        }
+
+        /**Writing the index of this pack to a temporary file.
+         * @return the temporary file. */
+        private File writeIndex() throws IOException {
+            int[] fanout = new int[FANOUT];
+            for (Entry entry : entries) {
+                fanout[entry.id[0] & 0xff] += 1;
+            }
+            for (int b = 1; b < FANOUT; b += 1) {
+                fanout[b] += fanout[b - 1];
+            }
+
+            File tempIndex = File.createTempFile("tmp-", ".idx", dir);
+            try (DataOutputStream idx = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(tempIndex.toPath())))) {
+                idx.writeInt(INDEX_MAGIC);
+                idx.writeInt(VERSION);
+                idx.writeInt(entries.size());
+                for (int b : fanout) {
+                    idx.writeInt(b);
+                }
+                for (Entry entry : entries) {
+                    idx.write(entry.id);
+                }
+                for (Entry entry : entries) {
+                    idx.writeLong(entry.offset);
+                }
+            } catch (IOException excp) {
+                tempIndex.delete();
+                throw excp;
+            }
+            return tempIndex;
+        }
+    }
+
+    /**Represents the id and offset of an entry being written. */
+    private static class Entry implements Comparable<Entry> {
+        /**Binary id of the entry. */
+        private final byte[] id;
+        /**Offset of the entry in the pack. */
+        private final long offset;
+
+        /**Creating an entry.
+         * @param entryId binary id of the entry
+         * @param entryOffset offset of the entry in the pack. */
+        Entry(byte[] entryId, long entryOffset) {
+            this.id = entryId;
+            this.offset = entryOffset;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Arrays.compareUnsigned(id, other.id);
+        }
+    }
+}
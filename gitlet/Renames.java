@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Finds files that were renamed or copied between two sets of files.
+ * A target with the same blob as a source is matched to it first.
+ * The other targets are scored against the other sources by their
+ * lines: every line is reduced to a hash, an inverted index maps each
+ * hash to the sources that have it, and a target only meets the
+ * sources it shares lines with, so the sources and targets are never
+ * compared pair by pair. The score is twice the number of shared
+ * lines over the lines of both files, in percent, and pairs scoring
+ * MIN_SCORE or more are matched best first, each file at most once.
+ * @author Neman Faiz
+ */
+public class Renames {
+
+    /**Smallest score of a rename, in percent. */
+    protected static final int MIN_SCORE = 50;
+    /**Largest number of sources a line may be in and still count.
+     * Lines as common as blank lines or braces say nothing about
+     * where a file came from. */
+    private static final int MAX_POSTINGS = 64;
+
+    /** Represents a target matched to its source. */
+    protected static class Match {
+        /**Name of the source. */
+        private final String source;
+        /**Name of the target. */
+        private final String target;
+        /**Similarity of the two files, in percent. */
+        private final int score;
+
+        /**Creating a match.
+         * @param from name of the source
+         * @param to name of the target
+         * @param percent similarity of the two files. */
+        Match(String from, String to, int percent) {
+            this.source = from;
+            this.target = to;
+            this.score = percent;
+        }
+
+        /**@return the name of the source. */
+        protected String getSource() {
+            return source;
+        }
+
+        /**@return the name of the target. */
+        protected String getTarget() {
+            return target;
+        }
+
+        /**@return the similarity of the two files, in percent. */
+        protected int getScore() {
+            return score;
+        }
+    }
+
+    /**Finding the source every target came from, if any.
+     * @param sources map of file name to blob of the files a target may
+     * have come from
+     * @param targets map of file name to blob of the new files
+     * @param objects object store the blobs are read from
+     * @return the matches, sorted by target. */
+    protected static List<Match> detect(Map<String, String> sources,
+                                        Map<String, String> targets,
+                                        ObjectStore objects) {
+        List<Match> matches = new ArrayList<>();
+        HashMap<String, String> byBlob = new HashMap<>();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            byBlob.putIfAbsent(source.getValue(), source.getKey());
+        }
+        Set<String> usedSources = new HashSet<>();
+        List<String> left = new ArrayList<>();
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            String source = byBlob.get(target.getValue());
+            if (source != null && usedSources.add(source)) {
+                matches.add(new Match(source, target.getKey(), 100));
+            } else {
+                left.add(target.getKey());
+            }
+        }
+
+        List<String> sourceNames = new ArrayList<>();
+        for (String source : sources.keySet()) {
+            if (!usedSources.contains(source)) {
+                sourceNames.add(source);
+            }
+        }
+        if (!left.isEmpty() && !sourceNames.isEmpty()) {
+            matchSimilar(sources, targets, sourceNames, left, objects,
+                    matches);
+        }
+        matches.sort((a, b) -> a.getTarget().compareTo(b.getTarget()));
+        return matches;
+    }
+
+    /**Matching targets to sources by the lines they share.
+     * @param sources map of file name to blob of the sources
+     * @param targets map of file name to blob of the targets
+     * @param sourceNames names of the sources not matched yet
+     * @param targetNames names of the targets not matched yet
+     * @param objects object store the blobs are read from
+     * @param matches list the matches are added to. */
+    private static void matchSimilar(Map<String, String> sources,
+                                     Map<String, String> targets,
+                                     List<String> sourceNames,
+                                     List<String> targetNames,
+                                     ObjectStore objects,
+                                     List<Match> matches) {
+        int[][] sourceLines = new int[sourceNames.size()][];
+        HashMap<Integer, List<int[]>> postings = new HashMap<>();
+        for (int s = 0; s < sourceNames.size(); s += 1) {
+            sourceLines[s] = fingerprint(
+                    objects.read(sources.get(sourceNames.get(s))));
+            int[] lines = sourceLines[s];
+            for (int k = 0; k < lines.length;) {
+                int end = runEnd(lines, k);
+                postings.computeIfAbsent(lines[k], h -> new ArrayList<>())
+                        .add(new int[] {s, end - k});
+                k = end;
+            }
+        }
+
+        List<int[]> candidates = new ArrayList<>();
+        int[] shared = new int[sourceNames.size()];
+        for (int t = 0; t < targetNames.size(); t += 1) {
+            int[] lines = fingerprint(
+                    objects.read(targets.get(targetNames.get(t))));
+            List<Integer> met = new ArrayList<>();
+            for (int k = 0; k < lines.length;) {
+                int end = runEnd(lines, k);
+                List<int[]> list = postings.get(lines[k]);
+                if (list != null && list.size() <= MAX_POSTINGS) {
+                    for (int[] posting : list) {
+                        if (shared[posting[0]] == 0) {
+                            met.add(posting[0]);
+                        }
+                        shared[posting[0]] += Math.min(posting[1], end - k);
+                    }
+                }
+                k = end;
+            }
+            for (int s : met) {
+                int total = sourceLines[s].length + lines.length;
+                int score = (int) (200L * shared[s] / total);
+                if (score >= MIN_SCORE) {
+                    candidates.add(new int[] {score, s, t});
+                }
+                shared[s] = 0;
+            }
+        }
+
+        candidates.sort((a, b) -> Integer.compare(b[0], a[0]));
+        boolean[] sourceUsed = new boolean[sourceNames.size()];
+        boolean[] targetUsed = new boolean[targetNames.size()];
+        for (int[] candidate : candidates) {
+            int s = candidate[1], t = candidate[2];
+            if (!sourceUsed[s] && !targetUsed[t]) {
+                sourceUsed[s] = true;
+                targetUsed[t] = true;
+                matches.add(new Match(sourceNames.get(s), targetNames.get(t),
+                        candidate[0]));
+            }
+        }
+    }
+
+    /**@param content content of a file
+     * @return the hashes of the lines of CONTENT, sorted. */
+    private static int[] fingerprint(byte[] content) {
+        List<String> lines = LineMerge.lines(
+                new String(content, StandardCharsets.UTF_8));
+        int[] hashes = new int[lines.size()];
+        for (int k = 0; k < hashes.length; k += 1) {
+            hashes[k] = lines.get(k).strip().hashCode();
+        }
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    /**@param hashes sorted line hashes
+     * @param start position of a hash
+     * @return the position after the last copy of the hash at START. */
+    private static int runEnd(int[] hashes, int start) {
+        int end = start + 1;
+        while (end < hashes.length && hashes[end] == hashes[start]) {
+            end += 1;
+        }
+        return end;
+    }
+}
@@ -6,11 +6,23 @@ import java.io.FileWriter;
 import java.io.BufferedWriter;
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Objects;
-import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 /** Represents a Repository for the Gitlet.
  * All the commands take place here.
@@ -21,17 +33,16 @@ public class Repository implements Serializable {
     /**String instance represent the head.
      * This head stores current branch. */
     private final String head;
-    /**String instance represent the branch.
-     * This branch stores the last Commit made. */
-    private String branch;
-    /**This represents object of staging class.
-     * Here we store files and their blobs
-     * to staged them for Addition. */
-    private Staging staging;
-    /**This represents objects of Destaging class.
-     * Here we store files and their blobs
-     * to staged them for Removal.*/
-    private Destaging destaging;
+    /**Represents the session of this invocation, created when first
+     * needed. It resolves the current branch and the last Commit made
+     * once, and memoizes the commits and blobs read through it. */
+    private Session session;
+    /**Represents the index, loaded when first needed.
+     * Here we keep files staged for addition and for removal,
+     * and the stat data of the working files. */
+    private Index index;
+    /**True while index writes are held back until flushIndex. */
+    private boolean deferIndex;
     /**Represents the current working directory. */
     private final File currentDirectory = new File(".");
     /**Represents the main Gitlet directory. */
@@ -39,19 +50,18 @@ public class Repository implements Serializable {
     /**Commit subdirectory to Git meta directory.
      * where we store Commit objects. */
     private static final File COMMIT_DIR = new File("./.gitlet/commits");
-    /**Staging Area subdirectory to Git meta directory.
-     * where we keep track of Files Staged for Addition
-     * and file Staged for Removal. */
-    private static final File STAGING_AREA_DIR =
-            new File("./.gitlet/stagingArea");
-
-    /**Staging subdirectory to Staging Area.
-     * where we store Staging objects. */
+    /**Index file of the Git meta directory.
+     * where we keep track of Files Staged for Addition,
+     * file Staged for Removal and the stat data of working files. */
+    private static final File INDEX_FILE = new File("./.gitlet/index");
+
+    /**Staging subdirectory of older repositories.
+     * where Staging objects were stored before the index file. */
     private static final File STAGING_DIR =
             new File("./.gitlet/stagingArea/staging");
 
-    /**Destaging subdirectory to Staging Area.
-     * where we store Destaging objects. */
+    /**Destaging subdirectory of older repositories.
+     * where Destaging objects were stored before the index file. */
     private static final File DESTAGING_DIR =
             new File("./.gitlet/stagingArea/destaging");
 
@@ -61,15 +71,37 @@ public class Repository implements Serializable {
      * SHA-1 name where we stored in commit staging objects. */
     private static final File BLOB_DIR = new File("./.gitlet/blobs");
 
+    /**Pack subdirectory to Git meta directory.
+     * where repack stores blobs folded into pack files. */
+    private static final File PACK_DIR = new File("./.gitlet/packs");
+
+    /**Commit-graph file of the Git meta directory.
+     * where we store the parents, generation numbers and time stamps
+     * of all commits for walking the history. */
+    private static final File GRAPH_FILE = new File("./.gitlet/commit-graph");
+
+    /**Represents the commit graph, loaded when first needed. */
+    private CommitGraph graph;
+
+    /**Commit message index subdirectory to Git meta directory.
+     * where we store the messages of all commits for find. */
+    private static final File MESSAGE_DIR = new File("./.gitlet/messages");
+
+    /**Represents the commit message index, opened when first needed. */
+    private MessageIndex messages;
+
+    /**Represents the object database.
+     * Blobs are read from packs or from loose files in BLOB_DIR. */
+    private final ObjectStore objects = new ObjectStore(BLOB_DIR, PACK_DIR);
+
     /**Branch subdirectory to Git meta directory.
      * where we store _Head file and branch files. */
     private static final File BRANCH_DIR = new File("./.gitlet/branches");
 
     /**Represents repository object.
-     * Initializing instance variable head and branch. */
+     * Initializing instance variable head. */
     public Repository() {
         this.head = "head";
-        this.branch = "master";
     }
 
     /**Represents the init command.
@@ -81,20 +113,17 @@ public class Repository implements Serializable {
 
         if (!GIT_DIR.exists()) {
             GIT_DIR.mkdir();
-            STAGING_AREA_DIR.mkdir();
-            STAGING_DIR.mkdir();
-            DESTAGING_DIR.mkdir();
             COMMIT_DIR.mkdir();
             BLOB_DIR.mkdir();
+            PACK_DIR.mkdir();
             BRANCH_DIR.mkdir();
 
             initialCommit();
 
 
         } else {
-            System.out.println("A Gitlet version-control system "
+            throw Utils.error("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
         }
     }
     /**Represents helper function to init command.
@@ -104,7 +133,7 @@ public class Repository implements Serializable {
         Utils.join(BRANCH_DIR, head).createNewFile();
 
         Commit initialCommit = new Commit("initial commit",
-                null, new HashMap<>());
+                null, Tree.write(objects, new HashMap<>()), objects);
 
         makeCommit(initialCommit);
 
@@ -118,14 +147,20 @@ public class Repository implements Serializable {
         newCommit.makeSerial();
         String commitSerial = newCommit.getCommitId();
         File commitPath = Utils.join(COMMIT_DIR, commitSerial);
+        getMessages().add(newCommit);
 
         if (!commitPath.exists()) {
             commitPath.createNewFile();
         }
 
-        Utils.writeObject(commitPath, newCommit);
+        newCommit.write(commitPath);
 
-        putCommitInBranch(commitSerial, branch);
+        if (!getGraph().append(newCommit)) {
+            graph = CommitGraph.rebuild(GRAPH_FILE, COMMIT_DIR, objects);
+        }
+
+        putCommitInBranch(commitSerial, getSession().getBranch());
+        session.setHeadId(commitSerial);
 
     }
 
@@ -158,7 +193,7 @@ public class Repository implements Serializable {
 
             FileWriter fileWriter = new FileWriter(headPath);
             BufferedWriter str = new BufferedWriter(fileWriter);
-            str.write(branch);
+            str.write(getSession().getBranch());
             str.close();
 
         } catch (IOException excp) {
@@ -192,65 +227,159 @@ public class Repository implements Serializable {
         }
     }
 
-    /**Helper function that reads the current branch from
-     * head file. */
-    private void readBranch() {
-
-        String branchPath = "./.gitlet/branches/" + head;
-
-        if (new File(branchPath).exists()) {
-            branch = readStringsOfFile(branchPath);
-        }
-
-    }
-
     /**Represents the add command.
-     * @param fileName the name file to add. */
-    public void add(String fileName) throws IOException {
+     * Each operand is a file, a directory whose files are all added,
+     * or a glob matched against the paths of the working files.
+     * Files are read and hashed in parallel, content that appears more
+     * than once is stored once, and the index is written at the end.
+     * @param operands the files, directories and globs to add. */
+    public void add(String... operands) throws IOException {
+
+        TreeMap<String, File> files = new TreeMap<>();
+        for (String operand : operands) {
+            if (!expandOperand(operand, files)) {
+                throw Utils.error("File does not exist.");
+            }
+        }
 
-        readBranch();
+        HashMap<String, String> blobs = getIndex().blobsOf(files);
+        Map<String, String> trackedFiles = getCommit().getTrackedFiles();
+        HashSet<String> written = new HashSet<>();
 
-        if (!new File(fileName).exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        }
+        for (String fileName : files.keySet()) {
+            index.unstageRemoval(fileName);
 
-        File destagingPath = Utils.join(DESTAGING_DIR, fileName);
-        if (destagingPath.exists()) {
-            destagingPath.delete();
-        }
+            String blob = blobs.get(fileName);
+            if (blob.equals(trackedFiles.get(fileName))) {
+                continue;
+            }
 
-        File currFile = null;
-        for (File find : currentDirectory.listFiles()) {
-            if (find.getName().equals(fileName)) {
-                currFile = find;
+            if (!written.contains(blob) && !objects.contains(blob)) {
+                blob = objects.writeFile(files.get(fileName));
             }
+            written.add(blob);
+
+            index.stage(fileName, blob);
         }
 
-        byte[] fileContent = Utils.readContents(currFile);
-        String blob = Utils.sha1((Object) fileContent);
-        Commit currCommit = getCommit();
+        index.write();
 
+    }
 
-        if (currCommit.getTrackedFiles().get(fileName) != null
-                && currCommit.getTrackedFiles()
-                .get(fileName).equals(blob)) {
+    /**Helper function that writes a working file, making the
+     * directories it is in if needed.
+     * @param fileName name of the file
+     * @param content byte array or String content of the file. */
+    private void writeWorkingFile(String fileName, Object content) {
+        File file = Utils.join(currentDirectory, fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        Utils.writeContents(file, content);
+    }
 
-            System.exit(0);
+    /**Helper function that writes a working file from a blob,
+     * streaming it out of the object store.
+     * @param fileName name of the file
+     * @param blob SHA-1 id of the blob. */
+    private void checkoutBlob(String fileName, String blob)
+            throws IOException {
+        File file = Utils.join(currentDirectory, fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
         }
+        objects.copyTo(blob, file);
+    }
 
-        File blobPath = Utils.join(BLOB_DIR, blob);
-        blobPath.createNewFile();
-        Utils.writeContents(blobPath, (Object) fileContent);
+    /**Helper function to add command.
+     * Finding the working files an operand names.
+     * @param operand a file, a directory or a glob
+     * @param files map of file name to working file the files
+     * are added to
+     * @return false if the operand names no file. */
+    private boolean expandOperand(String operand, Map<String, File> files)
+            throws IOException {
+        File file = Utils.join(currentDirectory, operand);
+        if (file.isFile()) {
+            String name = workingName(file.toPath());
+            if (name == null) {
+                return false;
+            }
+            files.put(name, file);
+            return true;
+        }
 
+        PathMatcher matcher = null;
+        if (file.isDirectory()) {
+            if (workingName(file.toPath()) == null) {
+                return false;
+            }
+        } else if (operand.matches(".*[*?\\[{].*")) {
+            matcher = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + operand);
+            file = currentDirectory;
+        } else {
+            return false;
+        }
 
-        staging = new Staging(new HashMap<>());
-        staging.getStagedForAddition().put(fileName, blob);
+        boolean found = false;
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = workingName(path);
+                if (name != null && Files.isRegularFile(path)
+                        && (matcher == null
+                            || matcher.matches(Paths.get(name)))) {
+                    files.put(name, path.toFile());
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
 
-        File stagingPath = Utils.join(STAGING_DIR, fileName);
-        stagingPath.createNewFile();
-        Utils.writeObject(stagingPath, staging);
+    /**Helper function to add command.
+     * @param path path of a working file or directory
+     * @return its name relative to the current directory, with '/'
+     * between directories, or null if it is outside the current
+     * directory or inside the Git meta directory. */
+    private String workingName(Path path) {
+        Path root = currentDirectory.toPath().toAbsolutePath().normalize();
+        Path relative = root.relativize(path.toAbsolutePath().normalize());
+        if (relative.startsWith("..")
+                || relative.startsWith(GIT_DIR.getName())) {
+            return null;
+        }
+        return relative.toString().replace(File.separatorChar, '/');
+    }
 
+    /**@return map of name to file of every working file in the current
+     * directory and the directories below it, sorted by name. The Git
+     * meta directory is never entered. */
+    private TreeMap<String, File> workingFiles() throws IOException {
+        TreeMap<String, File> files = new TreeMap<>();
+        Files.walkFileTree(currentDirectory.toPath(),
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(
+                            Path dir, BasicFileAttributes attrs) {
+                        return workingName(dir) == null
+                                ? FileVisitResult.SKIP_SUBTREE
+                                : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(
+                            Path file, BasicFileAttributes attrs) {
+                        String name = workingName(file);
+                        if (name != null && attrs.isRegularFile()) {
+                            files.put(name, file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        return files;
     }
 
     /**Helper function that handles the errors for commit command.
@@ -258,47 +387,28 @@ public class Repository implements Serializable {
     private void handleCommitErrors(String message) {
 
         if (message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw Utils.error("Please enter a commit message.");
 
-        } else if (Objects
-                .requireNonNull(STAGING_DIR.listFiles()).length == 0
-                && Objects
-                .requireNonNull(DESTAGING_DIR.listFiles()).length == 0) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+        } else if (getIndex().isEmpty()) {
+            throw Utils.error("No changes added to the commit.");
 
         }
     }
 
     /**Helper function that handle the staging Area for the commit.
-     * @param trackedFiles map of fileName to blob container.
+     * @param trackedFiles map of fileName to blob container,
+     * where files staged for removal are mapped to null.
      * @return the updated map of fileName to blob. */
     private HashMap<String, String> handleStagingAreaForCommit(
-            HashMap<String, String> trackedFiles) {
-        for (File file : Objects.requireNonNull(DESTAGING_DIR.listFiles())) {
-            trackedFiles.remove(file.getName());
-            file.delete();
+            HashMap<String, String> trackedFiles) throws IOException {
+        for (String fileName : getIndex().getStagedForRemoval()) {
+            trackedFiles.put(fileName, null);
         }
 
-        for (File file : Objects
-                .requireNonNull(STAGING_DIR.listFiles())) {
-            if (file.exists()) {
-
-                Staging currStaging = Utils.readObject(file, Staging.class);
-
-                if (currStaging.getStagedForAddition()
-                        .containsKey(file.getName())) {
-
-                    trackedFiles.put(file.getName(),
-                            currStaging.getStagedForAddition()
-                                    .get(file.getName()));
+        trackedFiles.putAll(index.getStagedForAddition());
 
-                    file.delete();
-                }
-            }
-
-        }
+        index.clear();
+        index.write();
 
         return trackedFiles;
     }
@@ -309,44 +419,185 @@ public class Repository implements Serializable {
     public void commit(String message)
                 throws IOException {
 
-        readBranch();
-
         handleCommitErrors(message);
 
         Commit currCommit = getCommit();
-        HashMap<String, String> trackedFiles = new
-                HashMap<>(currCommit.getTrackedFiles());
-
-        trackedFiles = handleStagingAreaForCommit(trackedFiles);
+        HashMap<String, String> changes =
+                handleStagingAreaForCommit(new HashMap<>());
 
+        String tree = Tree.update(objects, treeOf(currCommit), changes);
 
         Commit newCommit = new Commit(message,
-                                currCommit.getCommitId(), trackedFiles);
+                                currCommit.getCommitId(), tree, objects);
 
         makeCommit(newCommit);
 
     }
 
+    /**Helper function that returns the tree of a commit.
+     * Commits from older repositories hold their files inline,
+     * so a tree is written for them the first time it is needed.
+     * @param commit the commit
+     * @return the id of the tree of the commit. */
+    private String treeOf(Commit commit) throws IOException {
+        if (commit.getTree() != null) {
+            return commit.getTree();
+        }
+        return Tree.write(objects, commit.getTrackedFiles());
+    }
+
     /**Helper function that return the last commit from the current branch. */
     private Commit getCommit() throws IOException {
+        return getSession().getHeadCommit();
+    }
+
+    /**Helper function that return the id of the last commit
+     * from the current branch. */
+    private String getCommitId() {
+        return getSession().getHeadId();
+    }
+
+    /**Helper function that returns the session of this invocation. */
+    private Session getSession() {
+        if (session == null) {
+            session = new Session(Utils.join(BRANCH_DIR, head), BRANCH_DIR,
+                    COMMIT_DIR, objects);
+        }
+        return session;
+    }
+
+    /**Helper function that returns the index.
+     * The staging area of an older repository is read into it
+     * if there is no index file yet. */
+    private Index getIndex() {
+        if (index == null) {
+            index = Index.read(INDEX_FILE, STAGING_DIR, DESTAGING_DIR);
+            if (deferIndex) {
+                index.defer();
+            }
+        }
+        return index;
+    }
+
+    /**Holding back index writes until flushIndex, so a batch of
+     * commands writes the index file once at the end. */
+    protected void deferIndexWrites() {
+        deferIndex = true;
+        if (index != null) {
+            index.defer();
+        }
+    }
+
+    /**Writing the index file held back since deferIndexWrites. */
+    protected void flushIndex() throws IOException {
+        deferIndex = false;
+        if (index != null) {
+            index.flush();
+        }
+    }
+
+    /**Returns a summary of the files of the Git meta directory that a
+     * Repository caches: the content of the head and branch files, the
+     * stat data of the index and commit-graph files and the names of
+     * the pack files. Commits and blobs are named by their content, so
+     * they never go stale. A daemon compares summaries to find out if
+     * another process changed the repository since its last command.
+     * @return the summary. */
+    protected static String metaState() throws IOException {
+        StringBuilder state = new StringBuilder();
+        List<String> branches = Utils.plainFilenamesIn(BRANCH_DIR);
+        if (branches != null) {
+            for (String name : branches) {
+                state.append(name).append('=').append(Utils
+                        .readContentsAsString(Utils.join(BRANCH_DIR, name)))
+                        .append('\n');
+            }
+        }
+        for (File file : new File[] {INDEX_FILE, GRAPH_FILE}) {
+            if (file.exists()) {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class);
+                state.append(file.getName()).append('=')
+                        .append(attrs.size()).append(' ')
+                        .append(attrs.lastModifiedTime()).append(' ')
+                        .append(attrs.fileKey()).append('\n');
+            }
+        }
+        List<String> packs = Utils.plainFilenamesIn(PACK_DIR);
+        if (packs != null) {
+            state.append(String.join(" ", packs));
+        }
+        return state.toString();
+    }
 
-        String headBranch = readStringsOfFile("./.gitlet/branches/" + head);
+    /**Helper function that returns the commit graph.
+     * The commit-graph file is rebuilt from the commit directory
+     * if it is missing or was written by another version. */
+    private CommitGraph getGraph() throws IOException {
+        if (graph == null) {
+            graph = CommitGraph.load(GRAPH_FILE);
+        }
+        if (graph == null) {
+            graph = CommitGraph.rebuild(GRAPH_FILE, COMMIT_DIR, objects);
+        }
+        return graph;
+    }
 
-        String commitName = readStringsOfFile("./.gitlet/branches/"
-                + headBranch);
-        File commitID = Utils.join(COMMIT_DIR, commitName);
+    /**Helper function that returns the commit message index.
+     * The index is built from the commit directory if it is missing,
+     * corrupt, or holds a different number of commits than the commit
+     * graph, so the commit directory is not listed to open it. */
+    private MessageIndex getMessages() throws IOException {
+        if (messages == null) {
+            messages = MessageIndex.open(MESSAGE_DIR, COMMIT_DIR, objects,
+                    getGraph().size());
+        }
+        return messages;
+    }
 
+    /**Helper function that finds the commit an abbreviated id names,
+     * through the sorted id file of the commit graph. The graph is
+     * rebuilt if nothing matches and it is missing commits.
+     * @param commitId a SHA-1 id or a prefix of one
+     * @return the full SHA-1 id of the commit. */
+    protected String resolveCommit(String commitId) throws IOException {
+        List<String> matches = getGraph().resolve(commitId, 2);
+        if (matches.isEmpty()
+                && Objects.requireNonNull(COMMIT_DIR.list()).length
+                != graph.size()) {
+            graph = CommitGraph.rebuild(GRAPH_FILE, COMMIT_DIR, objects);
+            matches = graph.resolve(commitId, 2);
+        }
+        if (matches.isEmpty()) {
+            throw Utils.error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw Utils.error("Commit id %s is ambiguous.", commitId);
+        }
+        return matches.get(0);
+    }
 
-        return Utils.readObject(commitID, Commit.class);
+    /**Helper function that finds a commit in the commit graph.
+     * The graph is rebuilt if the commit was made without updating it.
+     * @param commitId SHA-1 id of the commit
+     * @return the position of the commit in the graph. */
+    private int graphIndex(String commitId) throws IOException {
+        int k = getGraph().indexOf(commitId);
+        if (k == CommitGraph.NONE) {
+            graph = CommitGraph.rebuild(GRAPH_FILE, COMMIT_DIR, objects);
+            k = graph.indexOf(commitId);
+        }
+        return k;
     }
 
 
     /**Represents the log command. */
     public void log() throws IOException {
 
-        Commit currCommit = getCommit();
+        int k = graphIndex(getCommitId());
 
-        while (currCommit != null) {
+        while (k != CommitGraph.NONE) {
+
+            Commit currCommit = getSession().commit(graph.idAt(k));
 
             System.out.println("===");
             System.out.println("commit " + currCommit.getCommitId());
@@ -354,13 +605,7 @@ public class Repository implements Serializable {
             System.out.println(currCommit.getMessage());
             System.out.println();
 
-            if (currCommit.getParent() != null) {
-                File parentPath = Utils.join(COMMIT_DIR,
-                        currCommit.getParent());
-                currCommit = Utils.readObject(parentPath, Commit.class);
-            } else {
-                break;
-            }
+            k = graph.parent(k);
         }
 
     }
@@ -368,13 +613,15 @@ public class Repository implements Serializable {
     /**Represents the checkout command.
      * @param args possible arguments for checkout. */
     public void checkout(String... args) throws IOException {
-        if (args.length == 3) {
+        if (args.length == 3 && args[1].equals("--")) {
             checkoutFileName(args[2]);
+        } else if (args.length == 3 && args[2].equals("--stat")) {
+            checkoutBranch(args[1], true);
 
         } else if (args.length == 4) {
             checkoutCommitId(args[1], args[3]);
         } else if (args.length == 2) {
-            checkoutBranch(args[1]);
+            checkoutBranch(args[1], false);
         }
 
     }
@@ -385,185 +632,121 @@ public class Repository implements Serializable {
     private void checkoutFileName(String fileName) throws IOException {
 
         Commit currCommit = getCommit();
-        HashMap<String, String> currMap = currCommit.getTrackedFiles();
+        Map<String, String> currMap = currCommit.getTrackedFiles();
 
-        if (STAGING_DIR.listFiles().length != 0) {
-            System.exit(0);
+        if (!getIndex().getStagedForAddition().isEmpty()) {
+            return;
         }
 
         if (!currMap.containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
-        }
-
-
-        File currDir = Utils.join(currentDirectory, fileName);
-        if (currDir.exists()) {
-            Utils.restrictedDelete(currDir);
+            throw Utils.error("File does not exist in that commit.");
         }
 
-        File blobPath = Utils.join(BLOB_DIR, currMap.get(fileName));
 
-        currDir.createNewFile();
-        Utils.writeContents(currDir, Utils.readContents(blobPath));
+        checkoutBlob(fileName, currMap.get(fileName));
 
     }
 
     /**Helper function to checkout command.
      * when there is commit id and file name is given.
-     * @param commitId the SHA-1 id of given id
+     * @param commitId the SHA-1 id of given id, possibly abbreviated
      * @param fileName the name of file for the command. */
     private void checkoutCommitId(String commitId, String fileName)
             throws IOException {
 
-        File commitFile = null;
-
-        for (File file : COMMIT_DIR.listFiles()) {
-
-
-            if (file.getName().equals(commitId)
-                    || file.getName().contains(commitId)) {
-
-                commitFile = file;
-            }
+        Commit commitObj = getSession().commit(resolveCommit(commitId));
 
+        if (!commitObj.getTrackedFiles().containsKey(fileName)) {
+            throw Utils.error("File does not exist in that commit.");
         }
 
-
-        if (commitFile == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-
-        } else {
-
-            Commit commitObj = Utils.readObject(commitFile, Commit.class);
-
-
-            if (commitObj == null) {
-                System.out.println("File does not exist in that commit.");
-                System.exit(0);
-
-
-            } else if (!commitObj.getTrackedFiles().containsKey(fileName)) {
-                System.out.println("File does not exist in that commit.");
-                System.exit(0);
-
-
-            } else {
-
-                File currDir = Utils.join(currentDirectory, fileName);
-
-                if (currDir.exists()) {
-                    Utils.restrictedDelete(currDir);
-                }
-
-                HashMap<String, String> currMap = commitObj.getTrackedFiles();
-
-                File blobPath = Utils.join(BLOB_DIR, currMap.get(fileName));
-
-                currDir.createNewFile();
-                Utils.writeContents(currDir, Utils.readContents(blobPath));
-
-            }
-
-        }
+        checkoutBlob(fileName, commitObj.getTrackedFiles().get(fileName));
 
     }
 
 
-
     /**Represents the rm command.
      * @param fileName the name of file to remove. */
     public void rm(String fileName) throws IOException {
 
-        File stagingPath = Utils.join(STAGING_DIR, fileName);
         Commit currCommit = getCommit();
-        HashMap<String, String> commitMap = currCommit.getTrackedFiles();
+        Map<String, String> commitMap = currCommit.getTrackedFiles();
 
 
-        if (stagingPath.exists()) {
+        if (getIndex().isStaged(fileName)) {
 
-            Staging stage = Utils.readObject(stagingPath, Staging.class);
+            String blob = index.unstage(fileName);
 
-            String blob = stage.getStagedForAddition().get(fileName);
-
-            File blobPath = Utils.join(BLOB_DIR, blob);
-            blobPath.delete();
-            stagingPath.delete();
+            objects.deleteLoose(blob);
+            index.write();
 
         } else if (commitMap.containsKey(fileName)) {
 
 
-            destaging = new Destaging(new HashMap<>());
-            destaging.stageForRemoval(fileName, commitMap.get(fileName));
-
-            File deStagingPath = Utils.join(DESTAGING_DIR, fileName);
-            deStagingPath.createNewFile();
-            Utils.writeObject(deStagingPath, destaging);
+            getIndex().stageForRemoval(fileName);
+            index.write();
 
 
             File cwd = Utils.join(currentDirectory, fileName);
             cwd.delete();
 
 
-            commitMap.remove(fileName);
-
-
         } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw Utils.error("No reason to remove the file.");
         }
 
 
     }
 
-    /**Represents the global-log command. */
-    public void globalLog() {
-
-        for (File file : COMMIT_DIR.listFiles()) {
-            String serial = file.getName();
-            File commitPath = Utils.join(COMMIT_DIR, serial);
-
-            Commit curr = Utils.readObject(commitPath, Commit.class);
-            curr.getGlobalLogPrint();
-        }
+    /**Represents the global-log command.
+     * The log of the message index is streamed through one buffered
+     * writer, so no commit is read. */
+    public void globalLog() throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+                Utils.STREAM_BUFFER_SIZE);
+        getMessages().writeLog(out);
+        out.flush();
     }
 
     /**Represents the find command.
+     * Commits are looked up in the message index, so none of them is
+     * read.
+     * @param option null to find the commits with the given message,
+     * --contains to find those whose message contains it, or --words
+     * to find those whose message has every word of it, ignoring case
      * @param message given message to find. */
-    public void find(String message) {
-
-        int commitCounter = 0;
-
-        for (File file : COMMIT_DIR.listFiles()) {
-            String serial = file.getName();
-            File commitPath = Utils.join(COMMIT_DIR, serial);
-
-            Commit curr = Utils.readObject(commitPath, Commit.class);
-
-            if (curr.getMessage().equals(message)) {
-                System.out.println(curr.getCommitId());
-                commitCounter += 1;
-            }
+    public void find(String option, String message) throws IOException {
+        List<String> found;
+        if (option == null) {
+            found = getMessages().exact(message);
+        } else if (option.equals("--contains")) {
+            found = getMessages().containing(message);
+        } else if (option.equals("--words")) {
+            found = getMessages().withWords(message);
+        } else {
+            throw Utils.error("Incorrect operands.");
         }
 
-        if (commitCounter == 0) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        if (found.isEmpty()) {
+            throw Utils.error("Found no commit with that message.");
         }
-
-
+        StringBuilder out = new StringBuilder();
+        for (String commitId : found) {
+            out.append(commitId).append('\n');
+        }
+        System.out.print(out);
     }
 
-    /**Represents the status command. */
-    public void status() throws IOException {
+    /**Represents the status command.
+     * @param renames true to also list the staged files that are
+     * renames or copies of files of the current commit. */
+    public void status(boolean renames) throws IOException {
 
         if (!GIT_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
 
-        String headName = readStringsOfFile("./.gitlet/branches/" + head);
+        String headName = getSession().getBranch();
 
         System.out.println("=== Branches ===");
         System.out.println("*" + headName);
@@ -576,83 +759,96 @@ public class Repository implements Serializable {
         System.out.println();
 
         System.out.println("=== Staged Files ===");
-        for (String fileName : Objects
-                .requireNonNull(Utils.plainFilenamesIn(STAGING_DIR))) {
+        for (String fileName : getIndex().getStagedForAddition().keySet()) {
             System.out.println(fileName);
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        for (String fileName : Objects
-                .requireNonNull(Utils.plainFilenamesIn(DESTAGING_DIR))) {
+        for (String fileName : index.getStagedForRemoval()) {
             System.out.println(fileName);
         }
         System.out.println();
 
+        if (renames) {
+            handleStatusRenames();
+        }
+
         handleStatusModification();
 
         System.out.println("=== Untracked Files ===");
-        for (File file : Objects.requireNonNull(currentDirectory.listFiles())) {
-            String fileName = file.getName();
-            if (fileName.endsWith(".txt")) {
-
-                Commit currCommit = getCommit();
+        Commit currCommit = getCommit();
+        for (String fileName : workingFiles().keySet()) {
+            if (!currCommit.getTrackedFiles().containsKey(fileName)
+                    && !index.isStaged(fileName)) {
+                System.out.println(fileName);
+            }
+        }
+        System.out.println();
 
-                byte[] fileContent = Utils.readContents(file);
-                String blob = Utils.sha1((Object) fileContent);
+        index.write();
 
-                File blobPath = Utils.join(BLOB_DIR, blob);
-                File stagingPath = Utils.join(STAGING_DIR, fileName);
+    }
 
+    /**Helper function to status command.
+     * This prints the files staged for addition that are renames of
+     * files staged for removal, or copies of files staged with changes,
+     * with how similar the two files are. */
+    private void handleStatusRenames() throws IOException {
+        Map<String, String> tracked = getCommit().getTrackedFiles();
+        HashMap<String, String> sources = new HashMap<>();
+        HashMap<String, String> targets = new HashMap<>();
+        for (String fileName : index.getStagedForRemoval()) {
+            sources.put(fileName, tracked.get(fileName));
+        }
+        for (Map.Entry<String, String> file
+                : index.getStagedForAddition().entrySet()) {
+            if (tracked.containsKey(file.getKey())) {
+                sources.put(file.getKey(), tracked.get(file.getKey()));
+            } else {
+                targets.put(file.getKey(), file.getValue());
+            }
+        }
 
-                if (!currCommit.getTrackedFiles().containsKey(fileName)
-                        && !stagingPath.exists()) {
-                    System.out.println(fileName);
-                }
+        System.out.println("=== Renamed Files ===");
+        if (!sources.isEmpty() && !targets.isEmpty()) {
+            for (Renames.Match match
+                    : Renames.detect(sources, targets, objects)) {
+                String kind = index.isRemoved(match.getSource())
+                        ? "" : "copy, ";
+                System.out.println(match.getSource() + " -> "
+                        + match.getTarget() + " (" + kind
+                        + match.getScore() + "%)");
             }
         }
         System.out.println();
-
-
     }
 
     /**Helper function to status command.
      * This handles modification done to the files and prints them. */
     private void handleStatusModification() throws IOException {
         System.out.println("=== Modifications Not Staged For Commit ===");
-        for (File file : Objects.requireNonNull(currentDirectory.listFiles())) {
-            String fileName = file.getName();
-
-            if (fileName.endsWith(".txt")) {
-
-                File stagingPath = Utils.join(STAGING_DIR, fileName);
-                File destagingPath = Utils.join(DESTAGING_DIR, fileName);
-                Commit currCommit = getCommit();
-
-                byte[] fileContent = Utils.readContents(file);
-                String blob = Utils.sha1((Object) fileContent);
-
-                if (currCommit.getTrackedFiles().containsKey(fileName)
-                        && !currCommit.getTrackedFiles()
-                        .get(fileName).equals(blob)
-                        && !stagingPath.exists() && !destagingPath.exists()) {
-                    System.out.println(fileName + " (modified)");
-                }
+        Commit currCommit = getCommit();
+        for (Map.Entry<String, File> file : workingFiles().entrySet()) {
+            String fileName = file.getKey();
+            if (currCommit.getTrackedFiles().containsKey(fileName)
+                    && !getIndex().isStaged(fileName)
+                    && !index.isRemoved(fileName)
+                    && !currCommit.getTrackedFiles().get(fileName)
+                    .equals(index.blobOf(fileName, file.getValue()))) {
+                System.out.println(fileName + " (modified)");
             }
         }
 
-        for (File file : STAGING_DIR.listFiles()) {
-            if (file.exists()
-                    && !Utils.join(currentDirectory,
-                    file.getName()).exists()) {
-                System.out.println(file.getName() + " (deleted)");
+        for (String fileName : getIndex().getStagedForAddition().keySet()) {
+            if (!Utils.join(currentDirectory, fileName).exists()) {
+                System.out.println(fileName + " (deleted)");
             }
         }
 
         for (String fileName : getCommit().getTrackedFiles().keySet()) {
 
-            File destagingPath = Utils.join(DESTAGING_DIR, fileName);
-            if (!destagingPath.exists()
+            if (!index.isRemoved(fileName)
                     && getCommit().getTrackedFiles()
                     .containsKey(fileName)
                     && !Utils.join(currentDirectory, fileName).exists()) {
@@ -671,76 +867,108 @@ public class Repository implements Serializable {
 
         File branchPath = Utils.join(BRANCH_DIR, branchName);
         if (branchPath.exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
-        }
-
-        Commit commit = getCommit();
-
-        String commitSerial = commit.getCommitId();
-        File commitPath = Utils.join(COMMIT_DIR, commitSerial);
-
-        if (!commitPath.exists()) {
-            commitPath.createNewFile();
+            throw Utils.error("A branch with that name already exists.");
         }
 
-        Utils.writeObject(commitPath, commit);
-
-        putCommitInBranch(commit.getCommitId(), branchName);
+        putCommitInBranch(getCommitId(), branchName);
 
     }
 
     /**Helper of to the checkout command.
      * when we want to switch to the given branch.
-     * @param branchName the name of given branch. */
-    private void checkoutBranch(String branchName) throws IOException {
+     * @param branchName the name of given branch
+     * @param stat true to report how many files were written,
+     * deleted and skipped. */
+    private void checkoutBranch(String branchName, boolean stat)
+            throws IOException {
 
         handleCheckoutErrors(branchName);
 
         String branchCommitName = readStringsOfFile("./.gitlet/branches/"
                 + branchName);
-        Commit checkoutCommit = Utils.readObject(
-                Utils.join(COMMIT_DIR, branchCommitName), Commit.class);
+        Commit checkoutCommit = getSession().commit(branchCommitName);
 
         Commit currCommit = getCommit();
 
         handleUntrackedForCheckout(currCommit, checkoutCommit);
 
 
-        if (checkoutCommit != null) {
+        Checkout checkout = new Checkout(currentDirectory, objects,
+                getIndex());
+        checkout.apply(checkoutChanges(currCommit, checkoutCommit));
+        if (stat) {
+            System.out.println(checkout.report(
+                    checkoutCommit.getTrackedFiles().size()));
+        }
 
-            for (String fileName : checkoutCommit.getTrackedFiles().keySet()) {
 
-                String serial = checkoutCommit.getTrackedFiles().get(fileName);
-                File blobPath = Utils.join(BLOB_DIR, serial);
+        getIndex().clearStagedForAddition();
+        index.write();
 
-                byte[] fileContent = Utils.readContents(blobPath);
-                Utils.writeContents(new File(fileName), (Object) fileContent);
+        updatehead(branchName);
 
+    }
+
+    /**Helper function to checkoutBranch and reset.
+     * Finds the files to write, which are the files that differ between
+     * the two commits, and the files TO tracks with an unchanged blob
+     * whose working file was deleted or edited. The stat cache keeps the
+     * working files nobody touched from being read.
+     * @param from the commit the working files are at
+     * @param to the commit the working files go to
+     * @return map of every file name to write to its blob in TO, or to
+     * null if TO does not track it. */
+    private HashMap<String, String> checkoutChanges(Commit from, Commit to)
+            throws IOException {
+        HashMap<String, String> changes = changesBetween(from, to);
+        HashMap<String, File> kept = new HashMap<>();
+        for (Map.Entry<String, String> file
+                : to.getTrackedFiles().entrySet()) {
+            if (changes.containsKey(file.getKey())) {
+                continue;
+            }
+            File workFile = Utils.join(currentDirectory, file.getKey());
+            if (workFile.isFile()) {
+                kept.put(file.getKey(), workFile);
+            } else {
+                changes.put(file.getKey(), file.getValue());
             }
         }
-
-        for (File file : Objects.requireNonNull(currentDirectory.listFiles())) {
-            String fileName = file.getName();
-
-            if (fileName.endsWith(".txt")) {
-
-
-                if (currCommit.getTrackedFiles().containsKey(fileName)
-                        && !checkoutCommit.getTrackedFiles()
-                        .containsKey(fileName)) {
-                    file.delete();
-                }
+        for (Map.Entry<String, String> blob
+                : getIndex().blobsOf(kept).entrySet()) {
+            String tracked = to.getTrackedFiles().get(blob.getKey());
+            if (!tracked.equals(blob.getValue())) {
+                changes.put(blob.getKey(), tracked);
             }
         }
+        return changes;
+    }
 
-
-        for (File file : Objects.requireNonNull(STAGING_DIR.listFiles())) {
-            file.delete();
+    /**Helper function to checkoutChanges.
+     * Finds the files that differ between two commits, comparing their
+     * trees when both have one.
+     * @param from the commit the working files are at
+     * @param to the commit the working files go to
+     * @return map of every differing file name to its blob in TO,
+     * or to null if TO does not track it. */
+    private HashMap<String, String> changesBetween(Commit from, Commit to) {
+        if (from.getTree() != null && to.getTree() != null) {
+            return Tree.diff(objects, from.getTree(), to.getTree());
         }
-
-        updatehead(branchName);
-
+        Map<String, String> fromFiles = from.getTrackedFiles();
+        Map<String, String> toFiles = to.getTrackedFiles();
+        HashMap<String, String> changes = new HashMap<>();
+        for (Map.Entry<String, String> entry : toFiles.entrySet()) {
+            if (!entry.getValue().equals(fromFiles.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String fileName : fromFiles.keySet()) {
+            if (!toFiles.containsKey(fileName)) {
+                changes.put(fileName, null);
+            }
+        }
+        return changes;
     }
 
     /**Helper function to checkout command.
@@ -750,17 +978,15 @@ public class Repository implements Serializable {
 
         File branchPath = Utils.join(BRANCH_DIR, branchName);
 
-        String headBranch = readStringsOfFile("./.gitlet/branches/" + head);
+        String headBranch = getSession().getBranch();
 
 
         if (!branchPath.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw Utils.error("No such branch exists.");
 
 
         } else if (headBranch.equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw Utils.error("No need to checkout the current branch.");
         }
     }
 
@@ -769,23 +995,15 @@ public class Repository implements Serializable {
      * @param currCommit the current commit
      * @param givenCommit the given commit. */
     private void handleUntrackedForCheckout(Commit currCommit,
-                                            Commit givenCommit) {
-
-        for (File file : Objects.requireNonNull(currentDirectory.listFiles())) {
-            String fileName = file.getName();
-
-            if (fileName.endsWith(".txt")) {
-
-                File stagingPath = Utils.join(STAGING_DIR, fileName);
+                                            Commit givenCommit)
+            throws IOException {
 
-                if (!stagingPath.exists()
-                        && !currCommit.getTrackedFiles().containsKey(fileName)
-                        && givenCommit.getTrackedFiles()
-                        .containsKey(fileName)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
-                }
+        for (String fileName : workingFiles().keySet()) {
+            if (!getIndex().isStaged(fileName)
+                    && !currCommit.getTrackedFiles().containsKey(fileName)
+                    && givenCommit.getTrackedFiles().containsKey(fileName)) {
+                throw Utils.error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
         }
     }
@@ -795,7 +1013,7 @@ public class Repository implements Serializable {
      * @param branchName the name of given branch. */
     private void updatehead(String branchName) {
         try {
-            branch = branchName;
+            getSession().setBranch(branchName);
             File headPath = Utils.join(BRANCH_DIR, head);
 
             FileWriter fileWriter = new FileWriter(headPath);
@@ -816,16 +1034,14 @@ public class Repository implements Serializable {
 
         File branchPath = Utils.join(BRANCH_DIR, branchName);
 
-        String headBranch = readStringsOfFile("./.gitlet/branches/" + head);
+        String headBranch = getSession().getBranch();
 
 
         if (!branchPath.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
 
         } else if (headBranch.equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw Utils.error("Cannot remove the current branch.");
         }
 
         branchPath.delete();
@@ -834,51 +1050,35 @@ public class Repository implements Serializable {
     /**Represents the reset command.
      * @param commitId SHA-1 id of the commit. */
     public void reset(String commitId) throws IOException {
+        reset(commitId, false);
+    }
 
-        File commitPath = Utils.join(COMMIT_DIR, commitId);
-        if (!commitPath.exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
+    /**Represents the reset command.
+     * @param abbreviatedId SHA-1 id of the commit, possibly abbreviated
+     * @param stat true to report how many files were written,
+     * deleted and skipped. */
+    public void reset(String abbreviatedId, boolean stat)
+            throws IOException {
+
+        String commitId = resolveCommit(abbreviatedId);
 
         Commit currCommit = getCommit();
-        Commit givenCommit = Utils.readObject(commitPath, Commit.class);
+        Commit givenCommit = getSession().commit(commitId);
 
         handleUntrackedForCheckout(currCommit, givenCommit);
 
 
-        if (givenCommit != null) {
-
-
-            for (String fileName : givenCommit.getTrackedFiles().keySet()) {
-
-                String serial = givenCommit.getTrackedFiles().get(fileName);
-                File blobPath = Utils.join(BLOB_DIR, serial);
-
-                byte[] fileContent = Utils.readContents(blobPath);
-                Utils.writeContents(new File(fileName), (Object) fileContent);
-
-            }
-        }
-
-        for (File file : Objects.requireNonNull(currentDirectory.listFiles())) {
-            String fileName = file.getName();
-
-            if (fileName.endsWith(".txt")) {
-
-
-                if (currCommit.getTrackedFiles().containsKey(fileName)
-                        && !givenCommit.getTrackedFiles()
-                        .containsKey(fileName)) {
-                    file.delete();
-                }
-            }
+        Checkout checkout = new Checkout(currentDirectory, objects,
+                getIndex());
+        checkout.apply(checkoutChanges(currCommit, givenCommit));
+        if (stat) {
+            System.out.println(checkout.report(
+                    givenCommit.getTrackedFiles().size()));
         }
 
 
-        for (File file : Objects.requireNonNull(STAGING_DIR.listFiles())) {
-            file.delete();
-        }
+        getIndex().clearStagedForAddition();
+        index.write();
 
         updateBranch(commitId);
     }
@@ -889,7 +1089,7 @@ public class Repository implements Serializable {
     private void updateBranch(String commitId) {
         try {
 
-            String branchName = readStringsOfFile("./.gitlet/branches/" + head);
+            String branchName = getSession().getBranch();
             File branchPath = Utils.join(BRANCH_DIR, branchName);
 
             FileWriter fileWriter = new FileWriter(branchPath);
@@ -897,6 +1097,8 @@ public class Repository implements Serializable {
             str.write(commitId);
             str.close();
 
+            getSession().setHeadId(commitId);
+
         } catch (IOException excp) {
             return;
         }
@@ -909,219 +1111,74 @@ public class Repository implements Serializable {
     private void handleMergeErrors(String branchName) throws IOException {
         File branchPath = Utils.join(BRANCH_DIR, branchName);
 
-        String headBranch = readStringsOfFile("./.gitlet/branches/" + head);
+        String headBranch = getSession().getBranch();
 
 
         if (headBranch.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw Utils.error("Cannot merge a branch with itself.");
         }
 
         if (!branchPath.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
         }
 
-        if (Objects.requireNonNull(STAGING_DIR.listFiles()).length != 0
-                || Objects.requireNonNull(DESTAGING_DIR.listFiles()).length
-                != 0) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        if (!getIndex().isEmpty()) {
+            throw Utils.error("You have uncommitted changes.");
         }
 
 
         String branchCommit = readStringsOfFile("./.gitlet/branches/"
                 + branchName);
 
-        Commit givenCommit = Utils.readObject(
-                Utils.join(COMMIT_DIR, branchCommit), Commit.class);
+        Commit givenCommit = getSession().commit(branchCommit);
 
         Commit currCommit = getCommit();
 
 
-        for (File file : Objects.requireNonNull(currentDirectory.listFiles())) {
-            String fileName = file.getName();
-
-            if (fileName.endsWith(".txt")) {
-
-                File stagingPath = Utils.join(STAGING_DIR, fileName);
-
-                if (!stagingPath.exists()
-                        && !currCommit.getTrackedFiles()
-                        .containsKey(fileName)
-                        && givenCommit.getTrackedFiles()
-                        .containsKey(fileName)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
-                }
-            }
-        }
+        handleUntrackedForCheckout(currCommit, givenCommit);
 
     }
 
     /**Helper function Merge command.
-     * when there is no common ancestor or
-     * when given branch is the ancestor.
+     * when the split point is one of the two commits: either
+     * given branch is the ancestor, or the current branch is and
+     * can be fast-forwarded.
      * @param branchName the name of given branch
      * @param headCommit the current commit
-     * @param givenCommit the given commit. */
-    private void handleNoSplitPoint(String branchName, Commit headCommit,
-                                    Commit givenCommit) throws IOException {
-
-        Commit temp1 = getCommit();
-        while (temp1.getParent() != null) {
-            if (givenCommit.getCommitId().equals(temp1.getCommitId())) {
-                System.out.println("Given branch is an ancestor "
-                        + "of the current branch.");
-                System.exit(0);
-            }
-            File parentPath = Utils.join(COMMIT_DIR, temp1.getParent());
-            Commit parentCommit = Utils.readObject(parentPath, Commit.class);
-            temp1 = parentCommit;
-        }
-
-        String tempCommit = readStringsOfFile("./.gitlet/branches/"
-                + branchName);
-
-        File tempPath = Utils.join(COMMIT_DIR, tempCommit);
-        Commit temp2 = Utils.readObject(tempPath, Commit.class);
-
-        while (temp2.getParent() != null) {
-            if (headCommit.getCommitId().equals(temp2.getCommitId())) {
-                checkoutBranch(branchName);
-                System.out.println("Current branch fast-forwarded.");
-                System.exit(0);
-            }
+     * @param givenCommit the given commit
+     * @param splitPoint SHA-1 id of the split point
+     * @return true if the current branch was fast-forwarded. */
+    private boolean handleNoSplitPoint(String branchName, Commit headCommit,
+                                    Commit givenCommit, String splitPoint)
+            throws IOException {
 
+        if (splitPoint.equals(givenCommit.getCommitId())) {
+            throw Utils.error("Given branch is an ancestor "
+                    + "of the current branch.");
+        }
 
-            File parentPath = Utils.join(COMMIT_DIR, temp2.getParent());
-            Commit parentCommit = Utils.readObject(parentPath, Commit.class);
-            temp2 = parentCommit;
+        if (splitPoint.equals(headCommit.getCommitId())) {
+            checkoutBranch(branchName, false);
+            System.out.println("Current branch fast-forwarded.");
+            return true;
         }
+        return false;
     }
 
     /**Helper function to Merge command.
-     * this find the split point between two branches.
+     * this find the split point between two branches, following
+     * merge parents as well as parents. When there are several best
+     * common ancestors, the one with the highest generation is used.
      * @param headCommit the current commit
      * @param givenCommit the given commit.
      * @return SHA-1 id of two branch common ancestor. */
-    private String findSplitPoint(Commit headCommit, Commit givenCommit) {
-        HashMap<String, Integer> headMap = new HashMap<>();
-        HashMap<String, Integer> givenMap = new HashMap<>();
-        Commit temp1 = headCommit;
-        int dist = 0;
-        while (temp1.getParent() != null) {
-            File parentPath = Utils.join(COMMIT_DIR, temp1.getParent());
-            Commit parentCommit = Utils.readObject(parentPath, Commit.class);
-            dist = dist + 1;
-            int depth = dist;
-            headMap.put(parentCommit.getCommitId(), depth);
-            if (temp1.getMergeParent() != null) {
-                headMap.put(temp1.getMergeParent(), depth);
-            }
-            temp1 = parentCommit;
-        }
-        Commit temp2 = givenCommit;
-        int dist2 = 0;
-        while (temp2.getParent() != null) {
-            File parentPath = Utils.join(COMMIT_DIR, temp2.getParent());
-            Commit parentCommit = Utils.readObject(parentPath, Commit.class);
-            dist2 = dist2 + 1;
-            int depth = dist2;
-            givenMap.put(parentCommit.getCommitId(), depth);
-            if (temp2.getMergeParent() != null) {
-                givenMap.put(temp2.getMergeParent(), depth);
-            }
-            temp2 = parentCommit;
-        }
-        String splitPoint = null;
-
-        HashMap<String, Integer> minMap = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : headMap.entrySet()) {
-            if (givenMap.containsKey(entry.getKey())) {
-                minMap.put(entry.getKey(), entry.getValue());
-            }
-        }
-        int min = Collections.min(minMap.values());
-        for (Map.Entry<String, Integer> entry : minMap.entrySet()) {
-            if (min == entry.getValue()) {
-                splitPoint = entry.getKey();
-            }
-        }
-        if (splitPoint == null) {
-            for (String commitId : headMap.keySet()) {
-                if (givenMap.containsKey(commitId)) {
-                    splitPoint = commitId;
-                }
-            }
-        }
-        return splitPoint;
-    }
-
-
-    /**Helper function to Merge command.
-     * This will stage files for addition when called.
-     * @param givenBlob blob of the given commit
-     * @param givenContent content of given commit
-     * @param fileName name of the file in CWD. */
-    private void handleMergeStaging(String givenBlob, String givenContent,
-                                    String fileName) throws IOException {
-
-        File cwd = Utils.join(currentDirectory, fileName);
-        if (!cwd.exists()) {
-            cwd.createNewFile();
-        }
-
-        Utils.writeContents(cwd, givenContent);
-        staging = new Staging(new HashMap<>());
-
-        staging.getStagedForAddition().put(fileName, givenBlob);
-
-        File stagingPath = Utils.join(STAGING_DIR, fileName);
-        stagingPath.createNewFile();
-        Utils.writeObject(stagingPath, staging);
-    }
-
-    /**Helper function to Merge command.
-     * This will stage files for Removal when called.
-     * @param headBlob blob of the current commit
-     * @param fileName name of the file. */
-    private void handleMergeDestaging(String headBlob, String fileName)
+    private String findSplitPoint(Commit headCommit, Commit givenCommit)
             throws IOException {
+        int headIndex = graphIndex(headCommit.getCommitId());
+        int givenIndex = graphIndex(givenCommit.getCommitId());
 
-        destaging = new Destaging(new HashMap<>());
-        destaging.stageForRemoval(fileName, headBlob);
-        File deStagingPath = Utils.join(DESTAGING_DIR, fileName);
-        deStagingPath.createNewFile();
-        Utils.writeObject(deStagingPath, destaging);
-
-        File cwd = Utils.join(currentDirectory, fileName);
-        cwd.delete();
-    }
-
-    /**Helper function to Merge command.
-     * When there is a conflict between files at the time of merging.
-     * @param fileName name of file in CWD
-     * @param givenContent content of given commit
-     * @param givenBlob blob of given blob
-     * @param headContent content of current commit. */
-    private void handleMergeConflict(String fileName, String givenContent,
-                                     String givenBlob, String headContent)
-            throws IOException {
-        File cwd = Utils.join(currentDirectory, fileName);
-        String text;
-        if (givenContent == null && givenBlob == null) {
-            text = "<<<<<<< HEAD\n" + headContent + "=======\n"
-                    + ">>>>>>>\n";
-        } else {
-            text = "<<<<<<< HEAD\n" + headContent + "=======\n"
-                    + givenContent + ">>>>>>>\n";
-        }
-        cwd.createNewFile();
-        Utils.writeContents(cwd, text);
-        add(fileName);
-        System.out.println("Encountered a merge conflict.");
+        List<Integer> bases = MergeBase.find(graph, headIndex, givenIndex);
+        return graph.idAt(bases.get(0));
     }
 
 
@@ -1129,8 +1186,12 @@ public class Repository implements Serializable {
      * Conditions for handling files when merging.
      * As we go through all files in given commit, current commit and commit
      * at split point where we decide which files to keep, stage for addition,
-     * stage for removal, modified when there is a conflict.
-     * @param allCommitFiles list of all files in head, given, and split commit.
+     * stage for removal, modified when there is a conflict. Files are told
+     * apart by their blob ids alone, and the outcome is queued on a
+     * TreeMerge, which changes the working files in parallel, reads
+     * contents only for files both branches changed and writes the index
+     * once. Files one branch renamed are handled first.
+     * @param allCommitFiles files changed in head or given since the split.
      * @param headCommit commit in current branch
      * @param givenCommit commit in given branch
      * @param splitCommit commit at the split point. */
@@ -1139,29 +1200,23 @@ public class Repository implements Serializable {
                                       Commit givenCommit,
                                       Commit splitCommit)
             throws IOException {
+        Map<String, String> head = headCommit.getTrackedFiles();
+        Map<String, String> given = givenCommit.getTrackedFiles();
+        Map<String, String> split = splitCommit.getTrackedFiles();
+        TreeMerge merge = new TreeMerge(currentDirectory, objects,
+                getIndex(), head);
+        HashSet<String> done = handleMergeRenames(merge, head, given, split);
         for (String fileName : allCommitFiles) {
-            String headBlob = null,   headContent = null;
-            String givenBlob = null,  givenContent = null;
-            String splitBlob = null,  splitContent = null;
-            if (headCommit.trackedFiles.containsKey(fileName)) {
-                headBlob = headCommit.getTrackedFiles().get(fileName);
-                File blobPath = Utils.join(BLOB_DIR, headBlob);
-                headContent = Utils.readContentsAsString(blobPath);
-            }
-            if (givenCommit.trackedFiles.containsKey(fileName)) {
-                givenBlob = givenCommit.getTrackedFiles().get(fileName);
-                File blobPath = Utils.join(BLOB_DIR, givenBlob);
-                givenContent = Utils.readContentsAsString(blobPath);
-            }
-            if (splitCommit.trackedFiles.containsKey(fileName)) {
-                splitBlob = splitCommit.getTrackedFiles().get(fileName);
-                File blobPath = Utils.join(BLOB_DIR, splitBlob);
-                splitContent = Utils.readContentsAsString(blobPath);
+            if (done.contains(fileName)) {
+                continue;
             }
+            String headBlob = head.get(fileName);
+            String givenBlob = given.get(fileName);
+            String splitBlob = split.get(fileName);
             if (splitBlob != null && givenBlob != null
                     && splitBlob.equals(headBlob)
                     && !splitBlob.equals(givenBlob)) {
-                handleMergeStaging(givenBlob, givenContent, fileName);
+                merge.take(fileName, givenBlob);
             } else if (splitBlob != null && headBlob != null
                     && splitBlob.equals(givenBlob)
                     && !splitBlob.equals(headBlob)) {
@@ -1171,25 +1226,107 @@ public class Repository implements Serializable {
                 continue;
             } else if (splitBlob != null && givenBlob == null
                     && splitBlob.equals(headBlob)) {
-                handleMergeDestaging(headBlob, fileName);
+                merge.remove(fileName);
             } else if (headBlob == null && givenBlob != null
                     && givenBlob.equals(splitBlob)) {
                 continue;
             } else if (splitBlob == null && headBlob == null
                     && givenBlob != null) {
-                handleMergeStaging(givenBlob, givenContent, fileName);
+                merge.take(fileName, givenBlob);
             } else if (splitBlob == null && headBlob != null
                     && givenBlob == null) {
                 continue;
+            } else if (Objects.equals(headBlob, givenBlob)) {
+                continue;
             } else {
-                handleMergeConflict(fileName, givenContent,
-                        givenBlob, headContent);
+                merge.merge(fileName, splitBlob, headBlob, givenBlob);
             }
         }
+        for (int k = merge.run(); k > 0; k -= 1) {
+            System.out.println("Encountered a merge conflict.");
+        }
     }
 
 
 
+    /**Helper function to Merge command.
+     * Handles files a branch renamed since the split point while the
+     * other branch changed them, by merging the changes of both into
+     * the new name, instead of meeting a delete on one side and a
+     * change on the other.
+     * @param merge the merge the outcome is queued on
+     * @param head map of file name to blob of the current commit
+     * @param given map of file name to blob of the given commit
+     * @param split map of file name to blob of the split point
+     * @return the names of the files handled. */
+    private HashSet<String> handleMergeRenames(TreeMerge merge,
+                                               Map<String, String> head,
+                                               Map<String, String> given,
+                                               Map<String, String> split) {
+        HashMap<String, String> headMoves = renamesSince(split, head);
+        HashMap<String, String> givenMoves = renamesSince(split, given);
+        HashSet<String> done = new HashSet<>();
+        for (Map.Entry<String, String> move : headMoves.entrySet()) {
+            String oldName = move.getKey(), newName = move.getValue();
+            String givenBlob = given.get(oldName);
+            if (newName.equals(givenMoves.get(oldName))) {
+                if (!head.get(newName).equals(given.get(newName))) {
+                    merge.merge(newName, split.get(oldName),
+                            head.get(newName), given.get(newName));
+                }
+            } else if (givenBlob != null && !given.containsKey(newName)
+                    && !givenBlob.equals(split.get(oldName))) {
+                merge.merge(newName, split.get(oldName), head.get(newName),
+                        givenBlob);
+            } else {
+                continue;
+            }
+            done.add(oldName);
+            done.add(newName);
+        }
+        for (Map.Entry<String, String> move : givenMoves.entrySet()) {
+            String oldName = move.getKey(), newName = move.getValue();
+            String headBlob = head.get(oldName);
+            if (!done.contains(oldName) && headBlob != null
+                    && !head.containsKey(newName)
+                    && !headBlob.equals(split.get(oldName))) {
+                merge.merge(newName, split.get(oldName), headBlob,
+                        given.get(newName));
+                merge.remove(oldName);
+                done.add(oldName);
+                done.add(newName);
+            }
+        }
+        return done;
+    }
+
+    /**Helper function that finds the files renamed between two commits.
+     * @param from map of file name to blob of the older commit
+     * @param to map of file name to blob of the newer commit
+     * @return map of old name to new name of the renamed files. */
+    private HashMap<String, String> renamesSince(Map<String, String> from,
+                                                 Map<String, String> to) {
+        HashMap<String, String> gone = new HashMap<>();
+        for (Map.Entry<String, String> file : from.entrySet()) {
+            if (!to.containsKey(file.getKey())) {
+                gone.put(file.getKey(), file.getValue());
+            }
+        }
+        HashMap<String, String> added = new HashMap<>();
+        for (Map.Entry<String, String> file : to.entrySet()) {
+            if (!from.containsKey(file.getKey())) {
+                added.put(file.getKey(), file.getValue());
+            }
+        }
+        HashMap<String, String> moves = new HashMap<>();
+        if (!gone.isEmpty() && !added.isEmpty()) {
+            for (Renames.Match match : Renames.detect(gone, added, objects)) {
+                moves.put(match.getSource(), match.getTarget());
+            }
+        }
+        return moves;
+    }
+
     /**Represents the Merge command.
      * @param branchName the name of branch we are merging our commit to. */
     public void merge(String branchName) throws IOException {
@@ -1199,29 +1336,31 @@ public class Repository implements Serializable {
         String branchCommit = readStringsOfFile("./.gitlet/branches/"
                 + branchName);
 
-        File givenPath = Utils.join(COMMIT_DIR, branchCommit);
-        Commit givenCommit = Utils.readObject(givenPath, Commit.class);
+        Commit givenCommit = getSession().commit(branchCommit);
 
         Commit headCommit = getCommit();
-        handleNoSplitPoint(branchName, headCommit, givenCommit);
-
 
         String splitPoint = findSplitPoint(headCommit, givenCommit);
+        if (handleNoSplitPoint(branchName, headCommit, givenCommit,
+                splitPoint)) {
+            return;
+        }
 
-        File splitPointPath = Utils.join(COMMIT_DIR, splitPoint);
-        Commit splitCommit = Utils.readObject(splitPointPath, Commit.class);
+        Commit splitCommit = getSession().commit(splitPoint);
 
 
+        String splitTree = treeOf(splitCommit);
         HashSet<String> allCommitFiles = new HashSet<>();
-        allCommitFiles.addAll(headCommit.getTrackedFiles().keySet());
-        allCommitFiles.addAll(givenCommit.getTrackedFiles().keySet());
-        allCommitFiles.addAll(splitCommit.getTrackedFiles().keySet());
+        allCommitFiles.addAll(Tree.diff(objects, splitTree,
+                treeOf(headCommit)).keySet());
+        allCommitFiles.addAll(Tree.diff(objects, splitTree,
+                treeOf(givenCommit)).keySet());
 
         handleMergeCondition(allCommitFiles,
                 headCommit, givenCommit, splitCommit);
 
 
-        String currBranch = readStringsOfFile("./.gitlet/branches/" + head);
+        String currBranch = getSession().getBranch();
         mergeCommit("Merged " + branchName + " into " + currBranch + ".",
                         givenCommit.getCommitId());
 
@@ -1235,20 +1374,62 @@ public class Repository implements Serializable {
     public void mergeCommit(String message, String mergeParent)
                 throws IOException {
 
-        readBranch();
-
         handleCommitErrors(message);
         Commit currCommit = getCommit();
-        HashMap<String, String> trackedFiles =
-                new HashMap<>(currCommit.getTrackedFiles());
+        HashMap<String, String> changes =
+                handleStagingAreaForCommit(new HashMap<>());
 
-        trackedFiles = handleStagingAreaForCommit(trackedFiles);
+        String tree = Tree.update(objects, treeOf(currCommit), changes);
 
         Commit newCommit = new Commit(message, currCommit.getCommitId(),
-                                        mergeParent, trackedFiles);
+                                        mergeParent, tree, objects);
 
         makeCommit(newCommit);
     }
 
+    /**Represents the repack command.
+     * Folds the loose blobs in the blob directory and any existing
+     * packs into a pack file, storing blobs as deltas against other
+     * versions of the same file where that is smaller, rewrites commits
+     * that are still stored with Java serialization in the binary
+     * commit encoding, and rebuilds the commit-graph file from scratch. */
+    public void repack() throws IOException {
+        objects.repack(blobPaths());
+        migrateCommits();
+        graph = CommitGraph.rebuild(GRAPH_FILE, COMMIT_DIR, objects);
+    }
+
+    /**Helper function to repack command.
+     * Finds a path every committed blob was committed under, reading
+     * each distinct tree once.
+     * @return map of blob id to file name. */
+    private HashMap<String, String> blobPaths() {
+        HashMap<String, String> paths = new HashMap<>();
+        HashSet<String> trees = new HashSet<>();
+        for (File file : Objects.requireNonNull(COMMIT_DIR.listFiles())) {
+            Commit commit = Commit.read(file, objects);
+            if (commit.getTree() != null && !trees.add(commit.getTree())) {
+                continue;
+            }
+            for (Map.Entry<String, String> entry
+                    : commit.getTrackedFiles().entrySet()) {
+                paths.putIfAbsent(entry.getValue(), entry.getKey());
+            }
+        }
+        return paths;
+    }
+
+    /**Helper function to repack command.
+     * Rewrites every commit stored with Java serialization in the
+     * binary encoding. The file keeps its name, so the commit keeps
+     * its id and every branch and parent pointing at it stays valid. */
+    private void migrateCommits() {
+        for (File file : Objects.requireNonNull(COMMIT_DIR.listFiles())) {
+            if (Commit.isLegacy(
+                    ObjectStore.decode(Utils.readContents(file)))) {
+                Commit.read(file, objects).write(file);
+            }
+        }
+    }
 
 }
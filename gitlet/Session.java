@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Represents the state of a repository for one invocation of Gitlet.
+ * The current branch, the id of the head commit and the head commit
+ * itself are resolved from the branch files once and kept until a
+ * command moves them. Commits read through a session are memoized,
+ * least recently used first out, so a command that looks at the same
+ * commit in a loop only reads it once.
+ * @author Neman Faiz
+ */
+public class Session {
+
+    /**Largest number of commits kept in memory. */
+    private static final int MAX_COMMITS = 128;
+    /**Branch a repository starts out on. */
+    private static final String DEFAULT_BRANCH = "master";
+
+    /**Head file, holding the name of the current branch. */
+    private final File headFile;
+    /**Directory of branch files. */
+    private final File branchDir;
+    /**Directory of commit objects. */
+    private final File commitDir;
+    /**Object store of the repository. */
+    private final ObjectStore objects;
+
+    /**Name of the current branch, read when first needed. */
+    private String branch;
+    /**SHA-1 id of the head commit, read when first needed. */
+    private String headId;
+    /**The head commit, read when first needed. */
+    private Commit headCommit;
+
+    /**Map of commit id to commit, least recently used first. */
+    private final LinkedHashMap<String, Commit> commits =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Commit> eldest) {
+                    return size() > MAX_COMMITS;
+                }
+            };
+
+    /**Creating a session.
+     * @param head the head file
+     * @param branches directory of branch files
+     * @param commitObjects directory of commit objects
+     * @param store object store of the repository. */
+    protected Session(File head, File branches, File commitObjects,
+                      ObjectStore store) {
+        this.headFile = head;
+        this.branchDir = branches;
+        this.commitDir = commitObjects;
+        this.objects = store;
+    }
+
+    /**@return the name of the current branch. */
+    protected String getBranch() {
+        if (branch == null) {
+            branch = readRef(headFile);
+            if (branch.isEmpty()) {
+                branch = DEFAULT_BRANCH;
+            }
+        }
+        return branch;
+    }
+
+    /**@return the SHA-1 id of the head commit. */
+    protected String getHeadId() {
+        if (headId == null) {
+            headId = readRef(Utils.join(branchDir, getBranch()));
+        }
+        return headId;
+    }
+
+    /**@return the head commit. */
+    protected Commit getHeadCommit() {
+        if (headCommit == null) {
+            headCommit = commit(getHeadId());
+        }
+        return headCommit;
+    }
+
+    /**Recording that the current branch has changed.
+     * @param branchName the name of the new current branch. */
+    protected void setBranch(String branchName) {
+        branch = branchName;
+        headId = null;
+        headCommit = null;
+    }
+
+    /**Recording that the current branch points at another commit.
+     * @param commitId SHA-1 id of the new head commit. */
+    protected void setHeadId(String commitId) {
+        headId = commitId;
+        headCommit = null;
+    }
+
+    /**Reading a commit.
+     * @param commitId SHA-1 id of the commit
+     * @return the commit object. */
+    protected Commit commit(String commitId) {
+        Commit commit = commits.get(commitId);
+        if (commit == null) {
+            commit = Commit.read(Utils.join(commitDir, commitId), objects);
+            commits.put(commitId, commit);
+        }
+        return commit;
+    }
+
+    /**Reading a branch or head file.
+     * @param refFile the file
+     * @return its content without line breaks, or an empty string
+     * if the file does not exist. */
+    private static String readRef(File refFile) {
+        if (!refFile.isFile()) {
+            return "";
+        }
+        return Utils.readContentsAsString(refFile).replace("\n", "")
+                .replace("\r", "");
+    }
+}
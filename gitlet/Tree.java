@@ -0,0 +1,382 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Represents a content-addressed tree of tracked files.
+ * Small trees are a single leaf that maps file names to blob ids.
+ * Once a leaf would hold more than MAX_LEAF files it is split into a
+ * node with up to FANOUT children, picked by the hex digit of the
+ * SHA-1 of the file name at the depth of the node. The shape of a
+ * tree only depends on the files in it, so two commits with the same
+ * files in part of the tree share that subtree, and a commit that
+ * changes one file only writes the trees on the path to that file.
+ * Blob ids are held as ObjectIds inside a tree and are only turned
+ * into hex where files go in or come out.
+ * @author Neman Faiz
+ */
+public class Tree {
+
+    /**First two bytes of an encoded tree. */
+    private static final short MAGIC = 0x4754;
+    /**Version of the encoding written by this class. */
+    private static final byte VERSION = 1;
+    /**Kind byte of a leaf. */
+    private static final byte LEAF = 0;
+    /**Kind byte of a node. */
+    private static final byte NODE = 1;
+    /**Largest number of files kept in a single leaf. */
+    protected static final int MAX_LEAF = 256;
+    /**Number of children of a node, one per hex digit. */
+    private static final int FANOUT = 16;
+
+    /**Files of this tree when it is a leaf, sorted by name, with their
+     * blob ids. */
+    private final TreeMap<String, ObjectId> entries;
+    /**Ids of the children of this tree when it is a node. */
+    private final ObjectId[] children;
+    /**Number of files in this tree and all its subtrees. */
+    private final int size;
+
+    /**Creating a leaf.
+     * @param files map of file name to blob id. */
+    private Tree(TreeMap<String, ObjectId> files) {
+        this.entries = files;
+        this.children = null;
+        this.size = files.size();
+    }
+
+    /**Creating a node.
+     * @param childIds ids of the children, null where there is none
+     * @param totalSize number of files under this node. */
+    private Tree(ObjectId[] childIds, int totalSize) {
+        this.entries = null;
+        this.children = childIds;
+        this.size = totalSize;
+    }
+
+    /**@return true if this tree is a leaf. */
+    private boolean isLeaf() {
+        return entries != null;
+    }
+
+    /**Writing a tree holding the given files.
+     * @param objects the object store to write to
+     * @param files map of file name to blob id
+     * @return the id of the tree. */
+    protected static String write(ObjectStore objects,
+                                  Map<String, String> files)
+            throws IOException {
+        return build(objects, toIds(files), 0).store(objects).toHex();
+    }
+
+    /**Writing a tree that is a given tree with some files changed.
+     * Only the trees on the path to a changed file are rewritten.
+     * @param objects the object store to write to
+     * @param root id of the tree to start from
+     * @param changes map of file name to its new blob id,
+     * or to null for a file that is removed
+     * @return the id of the new tree. */
+    protected static String update(ObjectStore objects, String root,
+                                   Map<String, String> changes)
+            throws IOException {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        return update(objects, read(objects, ObjectId.fromHex(root)),
+                toIds(changes), 0).store(objects).toHex();
+    }
+
+    /**Reading all the files of a tree.
+     * @param objects the object store to read from
+     * @param root id of the tree
+     * @return map of file name to blob id. */
+    protected static HashMap<String, String> flatten(ObjectStore objects,
+                                                     String root) {
+        HashMap<String, ObjectId> files = new HashMap<>();
+        flatten(objects, read(objects, ObjectId.fromHex(root)), files);
+        return toHex(files);
+    }
+
+    /**Finding the files that differ between two trees.
+     * Subtrees with the same id are skipped without being read.
+     * @param objects the object store to read from
+     * @param from id of the first tree
+     * @param to id of the second tree
+     * @return map of every differing file name to its blob id in TO,
+     * or to null if TO does not have that file. */
+    protected static HashMap<String, String> diff(ObjectStore objects,
+                                                  String from, String to) {
+        HashMap<String, ObjectId> changes = new HashMap<>();
+        diff(objects, ObjectId.fromHex(from), ObjectId.fromHex(to), changes);
+        return toHex(changes);
+    }
+
+    /**@param files map of file name to blob id in hex, or to null
+     * @return the map with the ids held as ObjectIds. */
+    private static HashMap<String, ObjectId> toIds(Map<String, String> files) {
+        HashMap<String, ObjectId> ids = new HashMap<>(files.size() * 2);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            ids.put(file.getKey(), file.getValue() == null
+                    ? null : ObjectId.fromHex(file.getValue()));
+        }
+        return ids;
+    }
+
+    /**@param files map of file name to blob id, or to null
+     * @return the map with the ids in hex. */
+    private static HashMap<String, String> toHex(Map<String, ObjectId> files) {
+        HashMap<String, String> hex = new HashMap<>(files.size() * 2);
+        for (Map.Entry<String, ObjectId> file : files.entrySet()) {
+            hex.put(file.getKey(), file.getValue() == null
+                    ? null : file.getValue().toHex());
+        }
+        return hex;
+    }
+
+    /**Helper function to build.
+     * @param name name of a file
+     * @param depth depth of a node
+     * @return the child of a node at DEPTH that NAME belongs to. */
+    private static int bucket(String name, int depth) {
+        return Utils.sha1Id(name).digit(depth);
+    }
+
+    /**Building a tree from scratch.
+     * @param objects the object store to write subtrees to
+     * @param files map of file name to blob id
+     * @param depth depth of the tree being built
+     * @return the tree, with its subtrees already written. */
+    private static Tree build(ObjectStore objects, Map<String, ObjectId> files,
+                              int depth) throws IOException {
+        if (files.size() <= MAX_LEAF) {
+            return new Tree(new TreeMap<>(files));
+        }
+        HashMap<Integer, HashMap<String, ObjectId>> groups = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+            groups.computeIfAbsent(bucket(entry.getKey(), depth),
+                    k -> new HashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        ObjectId[] childIds = new ObjectId[FANOUT];
+        for (Map.Entry<Integer, HashMap<String, ObjectId>> group
+                : groups.entrySet()) {
+            childIds[group.getKey()] =
+                    build(objects, group.getValue(), depth + 1)
+                            .store(objects);
+        }
+        return new Tree(childIds, files.size());
+    }
+
+    /**Helper function to update.
+     * @param objects the object store to read from and write to
+     * @param tree the tree to start from, or null if it is empty
+     * @param changes the changes under this tree
+     * @param depth depth of this tree
+     * @return the changed tree, with its subtrees already written. */
+    private static Tree update(ObjectStore objects, Tree tree,
+                               Map<String, ObjectId> changes, int depth)
+            throws IOException {
+        if (tree == null || tree.isLeaf()) {
+            TreeMap<String, ObjectId> files = tree == null
+                    ? new TreeMap<>() : new TreeMap<>(tree.entries);
+            applyChanges(files, changes);
+            return build(objects, files, depth);
+        }
+
+        HashMap<Integer, HashMap<String, ObjectId>> groups = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : changes.entrySet()) {
+            groups.computeIfAbsent(bucket(entry.getKey(), depth),
+                    k -> new HashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        ObjectId[] childIds = tree.children.clone();
+        int newSize = tree.size;
+        for (Map.Entry<Integer, HashMap<String, ObjectId>> group
+                : groups.entrySet()) {
+            int k = group.getKey();
+            Tree child = childIds[k] == null
+                    ? null : read(objects, childIds[k]);
+            int oldSize = child == null ? 0 : child.size;
+            child = update(objects, child, group.getValue(), depth + 1);
+            newSize += child.size - oldSize;
+            childIds[k] = child.size == 0 ? null : child.store(objects);
+        }
+
+        if (newSize <= MAX_LEAF) {
+            TreeMap<String, ObjectId> files = new TreeMap<>();
+            for (ObjectId childId : childIds) {
+                if (childId != null) {
+                    flatten(objects, read(objects, childId), files);
+                }
+            }
+            return new Tree(files);
+        }
+        return new Tree(childIds, newSize);
+    }
+
+    /**Helper function to update.
+     * @param files the files to change
+     * @param changes map of file name to its new blob id, or to null. */
+    private static void applyChanges(Map<String, ObjectId> files,
+                                     Map<String, ObjectId> changes) {
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                files.remove(change.getKey());
+            } else {
+                files.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /**Helper function to flatten.
+     * @param objects the object store to read from
+     * @param tree the tree to read
+     * @param files the map the files are added to. */
+    private static void flatten(ObjectStore objects, Tree tree,
+                                Map<String, ObjectId> files) {
+        if (tree.isLeaf()) {
+            files.putAll(tree.entries);
+            return;
+        }
+        for (ObjectId childId : tree.children) {
+            if (childId != null) {
+                flatten(objects, read(objects, childId), files);
+            }
+        }
+    }
+
+    /**Helper function to diff.
+     * @param objects the object store to read from
+     * @param from id of the first tree, or null if it is empty
+     * @param to id of the second tree, or null if it is empty
+     * @param changes the map the differing files are added to. */
+    private static void diff(ObjectStore objects, ObjectId from,
+                             ObjectId to, Map<String, ObjectId> changes) {
+        if (from == null ? to == null : from.equals(to)) {
+            return;
+        }
+        Tree fromTree = from == null ? null : read(objects, from);
+        Tree toTree = to == null ? null : read(objects, to);
+
+        if (fromTree != null && toTree != null
+                && !fromTree.isLeaf() && !toTree.isLeaf()) {
+            for (int k = 0; k < FANOUT; k += 1) {
+                diff(objects, fromTree.children[k], toTree.children[k],
+                        changes);
+            }
+            return;
+        }
+
+        HashMap<String, ObjectId> fromFiles = new HashMap<>();
+        HashMap<String, ObjectId> toFiles = new HashMap<>();
+        if (fromTree != null) {
+            flatten(objects, fromTree, fromFiles);
+        }
+        if (toTree != null) {
+            flatten(objects, toTree, toFiles);
+        }
+        for (Map.Entry<String, ObjectId> entry : toFiles.entrySet()) {
+            if (!entry.getValue().equals(fromFiles.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String fileName : fromFiles.keySet()) {
+            if (!toFiles.containsKey(fileName)) {
+                changes.put(fileName, null);
+            }
+        }
+    }
+
+    /**Reading a tree from the object store.
+     * @param objects the object store to read from
+     * @param id id of the tree
+     * @return the tree. */
+    private static Tree read(ObjectStore objects, ObjectId id) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(objects.read(id)));
+            if (in.readShort() != MAGIC || in.readByte() != VERSION) {
+                throw Utils.error("Corrupt tree %s.", id);
+            }
+            byte kind = in.readByte();
+            int treeSize = in.readInt();
+            if (kind == LEAF) {
+                TreeMap<String, ObjectId> files = new TreeMap<>();
+                for (int k = 0; k < treeSize; k += 1) {
+                    byte[] name = new byte[in.readInt()];
+                    in.readFully(name);
+                    files.put(new String(name, StandardCharsets.UTF_8),
+                            ObjectId.read(in));
+                }
+                return new Tree(files);
+            }
+            int present = in.readUnsignedShort();
+            ObjectId[] childIds = new ObjectId[FANOUT];
+            for (int k = 0; k < FANOUT; k += 1) {
+                if ((present & (1 << k)) != 0) {
+                    childIds[k] = ObjectId.read(in);
+                }
+            }
+            return new Tree(childIds, treeSize);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt tree %s.", id);
+        }
+    }
+
+    /**Writing this tree to the object store.
+     * @param objects the object store to write to
+     * @return the id of this tree. */
+    private ObjectId store(ObjectStore objects) throws IOException {
+        byte[] content = encode();
+        ObjectId id = Utils.sha1Id((Object) content);
+        objects.write(id.toHex(), content);
+        return id;
+    }
+
+    /**Encoding this tree.
+     * @return the bytes of the encoded tree. */
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(isLeaf() ? LEAF : NODE);
+            out.writeInt(size);
+            if (isLeaf()) {
+                for (Map.Entry<String, ObjectId> entry : entries.entrySet()) {
+                    byte[] name =
+                            entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                    entry.getValue().write(out);
+                }
+            } else {
+                int present = 0;
+                for (int k = 0; k < FANOUT; k += 1) {
+                    if (children[k] != null) {
+                        present |= 1 << k;
+                    }
+                }
+                out.writeShort(present);
+                for (ObjectId child : children) {
+                    if (child != null) {
+                        child.write(out);
+                    }
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/** Represents the working file changes of a merge.
+ * Merge decides what happens to every file from its blob ids and
+ * queues the outcome here: a file taken from the given branch, a file
+ * removed, or a file both branches changed, which is merged line by
+ * line. Running the merge deletes the removed files first, then does
+ * the rest on a WorkPool, as Checkout does. Workers only touch their
+ * own working file and the stat cache; what is staged is gathered as
+ * they finish and put into the index at the end, so the index file is
+ * written once.
+ * @author Neman Faiz
+ */
+public class TreeMerge {
+
+    /**The working directory. */
+    private final File workDir;
+    /**Object store the blobs are read from and written to. */
+    private final ObjectStore objects;
+    /**Index the outcome is staged in. */
+    private final Index index;
+    /**Map of file name to blob of the files of the current commit. */
+    private final Map<String, String> headFiles;
+    /**Map of file name to blob of the files taken from the given
+     * branch. */
+    private final Map<String, String> taken = new TreeMap<>();
+    /**Names of the files removed. */
+    private final List<String> removed = new ArrayList<>();
+    /**Map of file name to the split, head and given blobs of the
+     * files merged line by line, any of which may be null. */
+    private final Map<String, String[]> merged = new TreeMap<>();
+    /**Map of file name to blob of the files to stage, filled in as the
+     * work finishes. */
+    private final Map<String, String> staged = new TreeMap<>();
+    /**Number of files left with conflicts. */
+    private int conflicts;
+
+    /**Creating a merge.
+     * @param dir the working directory
+     * @param store object store of the repository
+     * @param idx index the outcome is staged in
+     * @param head map of file name to blob of the files of the current
+     * commit. */
+    protected TreeMerge(File dir, ObjectStore store, Index idx,
+                        Map<String, String> head) {
+        this.workDir = dir;
+        this.objects = store;
+        this.index = idx;
+        this.headFiles = head;
+    }
+
+    /**Taking a file from the given branch.
+     * @param fileName name of the file
+     * @param blob blob of the file in the given branch. */
+    protected void take(String fileName, String blob) {
+        taken.put(fileName, blob);
+    }
+
+    /**Removing a file the given branch removed.
+     * @param fileName name of the file. */
+    protected void remove(String fileName) {
+        removed.add(fileName);
+    }
+
+    /**Merging a file both branches changed. The head and given
+     * versions may come from other names, when a branch renamed it.
+     * @param fileName name the merged file is written to
+     * @param splitBlob blob at the split point, or null
+     * @param headBlob blob in the current branch, or null
+     * @param givenBlob blob in the given branch, or null. */
+    protected void merge(String fileName, String splitBlob, String headBlob,
+                         String givenBlob) {
+        merged.put(fileName, new String[] {splitBlob, headBlob, givenBlob});
+    }
+
+    /**Changing the working files and staging the outcome.
+     * @return the number of files left with conflicts. */
+    protected int run() throws IOException {
+        for (String fileName : removed) {
+            index.stageForRemoval(fileName);
+            Utils.join(workDir, fileName).delete();
+            index.forget(fileName);
+        }
+
+        List<Callable<Void>> work = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (Map.Entry<String, String> file : taken.entrySet()) {
+            work.add(() -> copy(file.getKey(), file.getValue()));
+            weights.add(WorkPool.weight(objects, file.getValue()));
+        }
+        for (Map.Entry<String, String[]> file : merged.entrySet()) {
+            String[] blobs = file.getValue();
+            work.add(() -> mergeLines(file.getKey(), blobs));
+            weights.add(WorkPool.weight(objects, blobs));
+        }
+        WorkPool.run(work, weights);
+
+        for (Map.Entry<String, String> file : staged.entrySet()) {
+            index.unstageRemoval(file.getKey());
+            index.stage(file.getKey(), file.getValue());
+        }
+        index.write();
+        return conflicts;
+    }
+
+    /**Writing a file taken from the given branch.
+     * @param fileName name of the file
+     * @param blob blob of the file
+     * @return null. */
+    private Void copy(String fileName, String blob) throws IOException {
+        File file = workFile(fileName);
+        objects.copyTo(blob, file);
+        index.refresh(fileName, file, blob);
+        stage(fileName, blob);
+        return null;
+    }
+
+    /**Merging a file line by line into its working file, and storing
+     * the result.
+     * @param fileName name of the file
+     * @param blobs the split, head and given blobs of the file
+     * @return null. */
+    private Void mergeLines(String fileName, String[] blobs)
+            throws IOException {
+        File file = workFile(fileName);
+        boolean conflict;
+        try (Writer out = Files.newBufferedWriter(file.toPath(),
+                StandardCharsets.UTF_8)) {
+            conflict = LineMerge.merge(content(blobs[0]), content(blobs[1]),
+                    content(blobs[2]), out);
+        }
+        String blob = objects.writeFile(file);
+        index.refresh(fileName, file, blob);
+        synchronized (this) {
+            if (conflict) {
+                conflicts += 1;
+            }
+            if (!blob.equals(headFiles.get(fileName))) {
+                staged.put(fileName, blob);
+            }
+        }
+        return null;
+    }
+
+    /**Recording a file to stage.
+     * @param fileName name of the file
+     * @param blob blob of the file. */
+    private synchronized void stage(String fileName, String blob) {
+        staged.put(fileName, blob);
+    }
+
+    /**@param fileName name of a file
+     * @return the working file, with the directories it is in made. */
+    private File workFile(String fileName) {
+        File file = Utils.join(workDir, fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        return file;
+    }
+
+    /**@param blob SHA-1 id of a blob, or null
+     * @return the content of the blob, or null if BLOB is null. */
+    private String content(String blob) {
+        if (blob == null) {
+            return null;
+        }
+        return new String(objects.read(blob), StandardCharsets.UTF_8);
+    }
+}
@@ -8,8 +8,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -17,7 +19,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -31,28 +32,55 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** SHA-1 digests, one per thread, reset and reused by every hash
+     *  instead of looking a new one up each time. */
+    private static final ThreadLocal<MessageDigest> SHA1 =
+        ThreadLocal.withInitial(Utils::newSha1Digest);
+
+    /** Returns a new SHA-1 digest, for a hash that is computed bit by
+     *  bit while other hashes are taken. */
+    static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                "System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 digest of this thread, reset. */
+    private static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1.get();
+        md.reset();
+        return md;
+    }
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        return toHex(sha1Bytes(vals));
+    }
+
+    /** Returns the SHA-1 hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays and Strings, as an ObjectId. */
+    static ObjectId sha1Id(Object... vals) {
+        return ObjectId.fromBytes(sha1Bytes(vals));
+    }
+
+    /** Returns the UID_BYTES SHA-1 hash of the concatenation of VALS,
+     *  which may be any mixture of byte arrays and Strings. */
+    private static byte[] sha1Bytes(Object... vals) {
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return md.digest();
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -61,6 +89,103 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffer file contents are streamed through. */
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Returns the SHA-1 hash of the contents of FILE.  The file is read
+     *  through a buffer of STREAM_BUFFER_SIZE bytes, so the memory needed
+     *  does not grow with the size of FILE.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        return copyHashed(file, OutputStream.nullOutputStream());
+    }
+
+    /** Copies the contents of SOURCE to TARGET, creating or overwriting
+     *  it as needed, and returns the SHA-1 hash of the bytes copied.
+     *  The contents are read once, through a buffer of STREAM_BUFFER_SIZE
+     *  bytes.  Throws IllegalArgumentException in case of problems. */
+    static String copyHashed(File source, File target) {
+        try (OutputStream out = Files.newOutputStream(target.toPath())) {
+            return copyHashed(source, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the contents of SOURCE to OUT, which is left open, and
+     *  returns the SHA-1 hash of the bytes copied.  The contents are
+     *  read once, through a buffer of STREAM_BUFFER_SIZE bytes.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String copyHashed(File source, OutputStream out) {
+        if (!source.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            MessageDigest md = sha1Digest();
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The length of a complete SHA-1 UID in bytes. */
+    static final int UID_BYTES = 20;
+
+    /** Hexadecimal digits, indexed by their value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Values of the hexadecimal digits, indexed by character, and -1
+     *  for any other character. */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < HEX_DIGITS.length; i += 1) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /** Returns the UID_BYTES binary form of the hexadecimal SHA-1 UID
+     *  HEX, which must be UID_LENGTH hexadecimal digits. */
+    static byte[] fromHex(String hex) {
+        if (hex.length() != UID_LENGTH) {
+            throw error("Malformed id %s.", hex);
+        }
+        byte[] id = new byte[UID_BYTES];
+        for (int i = 0; i < UID_BYTES; i += 1) {
+            id[i] = (byte) (hexValue(hex, 2 * i) << 4
+                            | hexValue(hex, 2 * i + 1));
+        }
+        return id;
+    }
+
+    /** Returns the value of the hexadecimal digit at K in HEX. */
+    private static int hexValue(String hex, int k) {
+        char c = hex.charAt(k);
+        int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw error("Malformed id %s.", hex);
+        }
+        return value;
+    }
+
+    /** Returns the hexadecimal form of the binary SHA-1 UID ID. */
+    static String toHex(byte[] id) {
+        char[] hex = new char[2 * id.length];
+        for (int i = 0; i < id.length; i += 1) {
+            hex[2 * i] = HEX_DIGITS[(id[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[id[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/** Runs the file work of checkout, reset and merge on a work-stealing
+ * pool. Every piece of work has a weight, the KiB of stored blobs it
+ * reads, and the thread handing out the work waits while more than
+ * MAX_IN_FLIGHT KiB are being worked on, so a few huge blobs cannot
+ * pile up in memory. A single piece of work runs on the calling thread.
+ * @author Neman Faiz
+ */
+final class WorkPool {
+
+    /**Largest number of stored bytes being worked on at once,
+     * in KiB. */
+    private static final int MAX_IN_FLIGHT = 64 << 10;
+
+    /**Not instantiable. */
+    private WorkPool() {
+    }
+
+    /**Running work, at most MAX_IN_FLIGHT KiB of it at once.
+     * @param work the work
+     * @param weights share of the budget each piece of work takes,
+     * as given by weight. */
+    protected static void run(List<Callable<Void>> work,
+                              List<Integer> weights) throws IOException {
+        if (work.size() <= 1) {
+            for (Callable<Void> task : work) {
+                call(task);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newWorkStealingPool();
+        Semaphore budget = new Semaphore(MAX_IN_FLIGHT);
+        try {
+            List<Future<?>> pending = new ArrayList<>(work.size());
+            for (int k = 0; k < work.size(); k += 1) {
+                Callable<Void> task = work.get(k);
+                int weight = weights.get(k);
+                budget.acquire(weight);
+                pending.add(pool.submit(() -> {
+                    try {
+                        return task.call();
+                    } finally {
+                        budget.release(weight);
+                    }
+                }));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException(excp);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof IOException) {
+                throw (IOException) excp.getCause();
+            }
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IOException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**@param objects object store the blobs are read from
+     * @param blobs SHA-1 ids of blobs, any of which may be null
+     * @return the share of the budget reading the blobs takes. */
+    protected static int weight(ObjectStore objects, String... blobs) {
+        long kib = 0;
+        for (String blob : blobs) {
+            if (blob != null) {
+                kib += objects.storedSize(blob) >> 10;
+            }
+        }
+        return (int) Math.max(1, Math.min(kib, MAX_IN_FLIGHT));
+    }
+
+    /**Running one piece of work on this thread.
+     * @param task the work. */
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException | RuntimeException excp) {
+            throw excp;
+        } catch (Exception excp) {
+            throw new IOException(excp);
+        }
+    }
+}